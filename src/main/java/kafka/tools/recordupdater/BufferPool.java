@@ -0,0 +1,140 @@
+package kafka.tools.recordupdater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A small pool of byte arrays used for decompressing and recompressing message
+ * sets, so that large batches reuse the same few buffers instead of allocating
+ * new ones for every wrapper message.
+ *
+ * Buffers larger than the configured maximum are never retained, so a single
+ * huge batch does not keep its buffers on the heap.
+ */
+class BufferPool {
+
+    private static final int MIN_BUFFER_SIZE = 8 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool(4, 32 * 1024 * 1024);
+
+    private final int maxPooledBuffers;
+    private final int maxPooledBufferSize;
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+
+    BufferPool(int maxPooledBuffers, int maxPooledBufferSize) {
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.maxPooledBufferSize = maxPooledBufferSize;
+    }
+
+    static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    synchronized byte[] acquire(int minSize) {
+        final Iterator<byte[]> it = buffers.iterator();
+        while (it.hasNext()) {
+            final byte[] buffer = it.next();
+            if (buffer.length >= minSize) {
+                it.remove();
+                return buffer;
+            }
+        }
+        return new byte[Math.max(minSize, MIN_BUFFER_SIZE)];
+    }
+
+    synchronized void release(byte[] buffer) {
+        if (buffer.length > maxPooledBufferSize) {
+            return;
+        }
+        if (buffers.size() >= maxPooledBuffers) {
+            // make room by dropping the smallest buffer, if it is smaller
+            byte[] smallest = buffer;
+            for (byte[] pooled : buffers) {
+                if (pooled.length < smallest.length) {
+                    smallest = pooled;
+                }
+            }
+            if (smallest == buffer) {
+                return;
+            }
+            buffers.remove(smallest);
+        }
+        buffers.add(buffer);
+    }
+
+    synchronized int getPooledBufferCount() {
+        return buffers.size();
+    }
+
+    PooledOutputStream newOutputStream() {
+        return new PooledOutputStream();
+    }
+
+    /**
+     * A growable {@link OutputStream} backed by buffers from the pool. The
+     * buffer must be handed back with {@link #release()} when done;
+     * {@link #close()} does not release it, so that wrapping (compression)
+     * streams can be closed while the written bytes are still in use.
+     */
+    class PooledOutputStream extends OutputStream {
+
+        private byte[] buffer = acquire(MIN_BUFFER_SIZE);
+        private int size = 0;
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void readFrom(InputStream in) throws IOException {
+            while (true) {
+                ensureCapacity(size + 1);
+                final int read = in.read(buffer, size, buffer.length - size);
+                if (read == -1) {
+                    return;
+                }
+                size += read;
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, buffer, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= buffer.length) {
+                return;
+            }
+            final byte[] newBuffer = acquire(Math.max(capacity, buffer.length * 2));
+            System.arraycopy(buffer, 0, newBuffer, 0, size);
+            BufferPool.this.release(buffer);
+            buffer = newBuffer;
+        }
+
+        void release() {
+            if (buffer != null) {
+                BufferPool.this.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
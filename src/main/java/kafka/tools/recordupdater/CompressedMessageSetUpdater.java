@@ -0,0 +1,245 @@
+package kafka.tools.recordupdater;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kafka.tools.recordupdater.BufferPool.PooledOutputStream;
+import kafka.tools.recordupdater.api.RecordUpdater;
+
+/**
+ * Applies a {@link RecordUpdater} to the inner messages of a compressed
+ * wrapper message (message format v0 and v1).
+ *
+ * The wrapper value is decompressed as a stream into a pooled buffer, the
+ * inner messages are updated in that buffer (including their CRCs) and the
+ * result is recompressed into another pooled buffer. If the recompressed value
+ * fits, it is padded to the length of the original value so that the wrapper
+ * message keeps its size in the segment file. Otherwise the wrapper message is
+ * left unchanged, and counted in {@link #getMessageSetsNotUpdated()}. The same
+ * goes for wrapper messages that cannot be decompressed.
+ *
+ * {@link #visitMessages(long, byte, CompressionCodec, byte[], PooledOutputStream, MessageVisitor)}
+ * is also used by {@link SegmentFileReader} to read the inner messages.
+ */
+class CompressedMessageSetUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressedMessageSetUpdater.class);
+
+    private static final int HEADER_SIZE = 8 + 4;
+
+    private final File file;
+    private final BufferPool bufferPool;
+    private final CRC32 crc = new CRC32();
+    private long messageSetsNotUpdated = 0;
+
+    CompressedMessageSetUpdater(File file, BufferPool bufferPool) {
+        this.file = file;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Receives the inner messages of a decompressed message set.
+     */
+    static interface MessageVisitor {
+
+        /**
+         * @param offset
+         *            the absolute offset of the inner message
+         * @param buffer
+         *            the decompressed message set
+         * @param crcOffset
+         *            the index of the crc field of the inner message
+         * @param messageEnd
+         *            the index after the last byte of the inner message
+         * @return true if the inner message was updated in the buffer
+         */
+        public boolean visitMessage(long offset, ByteBuffer buffer, int crcOffset, int messageEnd);
+    }
+
+    /**
+     * Updates the inner messages of a compressed wrapper message.
+     *
+     * @param wrapperOffset
+     *            the offset of the wrapper message
+     * @param magicValue
+     *            the magic value of the wrapper message
+     * @param codec
+     *            the codec of the wrapper message, or null if unsupported
+     * @param value
+     *            the (compressed) value of the wrapper message. If updated, the
+     *            new compressed value is written into this array.
+     * @param recordUpdater
+     * @return the number of inner records that were updated, i.e. 0 if the
+     *         value was left unchanged
+     * @throws IOException
+     */
+    int update(long wrapperOffset, byte magicValue, CompressionCodec codec, byte[] value,
+            RecordUpdater recordUpdater) throws IOException {
+        final PooledOutputStream decompressed = bufferPool.newOutputStream();
+        final PooledOutputStream compressed = bufferPool.newOutputStream();
+        try {
+            final int updatedRecords = visitMessages(wrapperOffset, magicValue, codec, value, decompressed,
+                    (offset, buffer, crcOffset, messageEnd) -> updateMessage(offset, buffer, crcOffset, messageEnd,
+                            recordUpdater));
+            if (updatedRecords <= 0) {
+                return 0;
+            }
+
+            for (int variant = 0; variant < codec.getVariants(); variant++) {
+                compressed.reset();
+                try (final OutputStream out = codec.compress(compressed, variant)) {
+                    out.write(decompressed.buffer(), 0, decompressed.size());
+                }
+                if (codec.writePadded(compressed.buffer(), compressed.size(), value)) {
+                    return updatedRecords;
+                }
+            }
+
+            logger.warn(
+                    "Recompressed message set with offset={} ({} bytes) does not fit in the original {} bytes, leaving {} records NOT updated in segment file: {}",
+                    wrapperOffset, compressed.size(), value.length, updatedRecords, file);
+            messageSetsNotUpdated++;
+            return 0;
+        } finally {
+            decompressed.release();
+            compressed.release();
+        }
+    }
+
+    /**
+     * @return the number of message sets that were skipped or could not be
+     *         written back, leaving their records unchanged
+     */
+    long getMessageSetsNotUpdated() {
+        return messageSetsNotUpdated;
+    }
+
+    /**
+     * Decompresses the value of a wrapper message into a pooled buffer and
+     * passes each inner message to the visitor, with its absolute offset.
+     * Message sets that cannot be decompressed are skipped with a warning and
+     * counted in {@link #getMessageSetsNotUpdated()}.
+     *
+     * @param wrapperOffset
+     *            the offset of the wrapper message
+     * @param magicValue
+     *            the magic value of the wrapper message
+     * @param codec
+     *            the codec of the wrapper message, or null if unsupported
+     * @param value
+     *            the (compressed) value of the wrapper message
+     * @param decompressed
+     *            the pooled stream to decompress into
+     * @param visitor
+     * @return the number of inner messages that the visitor updated, or -1 if
+     *         the message set was skipped
+     */
+    int visitMessages(long wrapperOffset, byte magicValue, CompressionCodec codec, byte[] value,
+            PooledOutputStream decompressed, MessageVisitor visitor) {
+        if (codec == null) {
+            logger.warn("Skipping message with offset={} and unsupported compression codec in segment file: {}",
+                    wrapperOffset, file);
+            messageSetsNotUpdated++;
+            return -1;
+        }
+        if (codec == CompressionCodec.LZ4 && magicValue == 0) {
+            // message format v0 uses a non-standard LZ4 frame header checksum
+            logger.warn("Skipping LZ4 compressed message set with offset={} (message format v0) in segment file: {}",
+                    wrapperOffset, file);
+            messageSetsNotUpdated++;
+            return -1;
+        }
+
+        try (final InputStream in = codec.decompress(new ByteArrayInputStream(value))) {
+            decompressed.readFrom(in);
+        } catch (IOException | RuntimeException e) {
+            // e.g. an EOFException for a truncated value, which must not be
+            // mistaken for the end of the segment file
+            logger.warn("Could not decompress message set with offset={}, skipping it in segment file: {}",
+                    wrapperOffset, file, e);
+            messageSetsNotUpdated++;
+            return -1;
+        }
+
+        final int size = decompressed.size();
+        final ByteBuffer buffer = ByteBuffer.wrap(decompressed.buffer(), 0, size);
+
+        // from message format v1 the inner offsets are relative, and the
+        // wrapper has the absolute offset of the last inner message
+        long offsetDelta = 0;
+        if (magicValue > 0) {
+            long lastInnerOffset = 0;
+            for (int i = 0; i + HEADER_SIZE <= size; i += HEADER_SIZE + FieldCodec.readInt32(buffer, i + 8)) {
+                lastInnerOffset = FieldCodec.readInt64(buffer, i);
+            }
+            offsetDelta = wrapperOffset - lastInnerOffset;
+        }
+
+        int updated = 0;
+        int messageStart = 0;
+        while (messageStart + HEADER_SIZE <= size) {
+            final long offset = FieldCodec.readInt64(buffer, messageStart) + offsetDelta;
+            final int crcOffset = messageStart + HEADER_SIZE;
+            final int messageEnd = crcOffset + FieldCodec.readInt32(buffer, messageStart + 8);
+            if (messageEnd > size) {
+                logger.warn("Truncated inner message with offset={} in segment file: {}", offset, file);
+                break;
+            }
+            if (visitor.visitMessage(offset, buffer, crcOffset, messageEnd)) {
+                updated++;
+            }
+            messageStart = messageEnd;
+        }
+        return updated;
+    }
+
+    /**
+     * Applies the record updater to an uncompressed inner message, in place.
+     *
+     * @return true if the message was updated
+     */
+    private boolean updateMessage(long offset, ByteBuffer buffer, int crcOffset, int messageEnd,
+            RecordUpdater recordUpdater) {
+        final byte[] b = buffer.array();
+
+        // skip crc, magic value and attributes
+        final byte innerMagicValue = b[crcOffset + 4];
+        int i = crcOffset + 4 + 1 + 1;
+        if (innerMagicValue > 0) {
+            i += 8;
+        }
+
+        final int keyLength = FieldCodec.readInt32(buffer, i);
+        i += 4;
+        final int keyOffset = i;
+        final byte[] key = keyLength == -1 ? new byte[0] : Arrays.copyOfRange(b, i, i + keyLength);
+        i += key.length;
+
+        final int valueLength = FieldCodec.readInt32(buffer, i);
+        i += 4;
+        final int valueOffset = i;
+        final byte[] value = valueLength == -1 ? new byte[0] : Arrays.copyOfRange(b, i, i + valueLength);
+
+        if (!recordUpdater.update(offset, key, value)) {
+            return false;
+        }
+        System.arraycopy(key, 0, b, keyOffset, key.length);
+        System.arraycopy(value, 0, b, valueOffset, value.length);
+
+        crc.reset();
+        crc.update(b, crcOffset + 4, messageEnd - crcOffset - 4);
+        FieldCodec.writeUnsignedInt32(buffer, crcOffset, crc.getValue());
+
+        logger.debug("Updated inner record with offset={} in segment file: {}", offset, file);
+        return true;
+    }
+}
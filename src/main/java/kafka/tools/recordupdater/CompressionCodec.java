@@ -0,0 +1,273 @@
+package kafka.tools.recordupdater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * The compression codecs of wrapper messages (message format v0 and v1), as
+ * identified by the lowest bits of the message attributes.
+ *
+ * Since records must keep their size on disk, recompressed data is padded to
+ * the length of the original compressed data. Each codec pads in a way that
+ * the decompressors used by Kafka ignore. A codec may offer several
+ * compression variants to try when the first one does not fit.
+ */
+enum CompressionCodec {
+
+    NONE(0) {
+        @Override
+        InputStream decompress(InputStream in) {
+            return in;
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int variant) {
+            return out;
+        }
+
+        @Override
+        boolean writePadded(byte[] compressed, int length, byte[] target) {
+            return false;
+        }
+    },
+
+    GZIP(1) {
+
+        private static final int HEADER_SIZE = 10;
+        private static final int FLAG_EXTRA = 4;
+        private static final int FLAG_COMMENT = 16;
+        private static final int MIN_EXTRA_SIZE = 2 + 4;
+        private static final int MAX_EXTRA_SUBFIELD_SIZE = 0xffff - 4;
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+
+        @Override
+        int getVariants() {
+            return 2;
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int variant) throws IOException {
+            if (variant == 0) {
+                return new GZIPOutputStream(out);
+            }
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+        }
+
+        /**
+         * Pads by adding an 'extra' field and/or a comment to the gzip header.
+         */
+        @Override
+        boolean writePadded(byte[] compressed, int length, byte[] target) {
+            int padding = target.length - length;
+            if (padding < 0) {
+                return false;
+            }
+            System.arraycopy(compressed, 0, target, 0, HEADER_SIZE);
+            int i = HEADER_SIZE;
+            if (padding >= MIN_EXTRA_SIZE) {
+                // a single subfield with ID 'K','P'
+                final int subfieldSize = Math.min(padding - MIN_EXTRA_SIZE, MAX_EXTRA_SUBFIELD_SIZE);
+                target[3] |= FLAG_EXTRA;
+                writeLittleEndianShort(target, i, subfieldSize + 4);
+                target[i + 2] = 'K';
+                target[i + 3] = 'P';
+                writeLittleEndianShort(target, i + 4, subfieldSize);
+                Arrays.fill(target, i + 6, i + 6 + subfieldSize, (byte) 0);
+                i += MIN_EXTRA_SIZE + subfieldSize;
+                padding -= MIN_EXTRA_SIZE + subfieldSize;
+            }
+            if (padding > 0) {
+                // a zero-terminated comment
+                target[3] |= FLAG_COMMENT;
+                Arrays.fill(target, i, i + padding - 1, (byte) ' ');
+                target[i + padding - 1] = 0;
+                i += padding;
+            }
+            System.arraycopy(compressed, HEADER_SIZE, target, i, length - HEADER_SIZE);
+            return true;
+        }
+
+        private void writeLittleEndianShort(byte[] b, int i, int value) {
+            b[i] = (byte) value;
+            b[i + 1] = (byte) (value >>> 8);
+        }
+    },
+
+    SNAPPY(2) {
+
+        // a chunk with a length of 1 and a compressed empty block
+        private final byte[] emptyChunk = new byte[] { 0, 0, 0, 1, 0 };
+
+        // the first four bytes of the xerial stream header
+        private final byte[] magicHeaderHead = new byte[] { -126, 'S', 'N', 'A' };
+
+        private static final int HEADER_SIZE = 16;
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new SnappyInputStream(in);
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int variant) {
+            return new SnappyOutputStream(out);
+        }
+
+        /**
+         * Pads with empty chunks, optionally followed by an invalid header of a
+         * concatenated stream (which ends decompression), followed by less
+         * than four trailing bytes (which are too short for a chunk length and
+         * thus ignored).
+         */
+        @Override
+        boolean writePadded(byte[] compressed, int length, byte[] target) {
+            final int padding = target.length - length;
+            if (padding < 0) {
+                return false;
+            }
+            int emptyChunks = padding / emptyChunk.length;
+            boolean header = false;
+            if (padding % emptyChunk.length >= 4) {
+                // replace three empty chunks and four trailing bytes by a header
+                if (emptyChunks < 3) {
+                    return false;
+                }
+                emptyChunks -= 3;
+                header = true;
+            }
+
+            System.arraycopy(compressed, 0, target, 0, length);
+            Arrays.fill(target, length, target.length, (byte) 0);
+            int i = length;
+            for (int j = 0; j < emptyChunks; j++) {
+                System.arraycopy(emptyChunk, 0, target, i, emptyChunk.length);
+                i += emptyChunk.length;
+            }
+            if (header) {
+                System.arraycopy(magicHeaderHead, 0, target, i, magicHeaderHead.length);
+            }
+            return true;
+        }
+    },
+
+    LZ4(3) {
+
+        private static final int SKIPPABLE_FRAME_MAGIC = 0x184D2A50;
+        private static final int SKIPPABLE_FRAME_HEADER_SIZE = 8;
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in, true);
+        }
+
+        @Override
+        int getVariants() {
+            return 2;
+        }
+
+        @Override
+        OutputStream compress(OutputStream out, int variant) throws IOException {
+            final LZ4Factory factory = LZ4Factory.fastestInstance();
+            return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, -1L,
+                    variant == 0 ? factory.fastCompressor() : factory.highCompressor(),
+                    XXHashFactory.fastestInstance().hash32(), LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+        }
+
+        /**
+         * Pads with a skippable frame after the compressed frame.
+         */
+        @Override
+        boolean writePadded(byte[] compressed, int length, byte[] target) {
+            final int padding = target.length - length;
+            if (padding < 0) {
+                return false;
+            }
+            if (padding > 0 && padding < SKIPPABLE_FRAME_HEADER_SIZE) {
+                return false;
+            }
+            System.arraycopy(compressed, 0, target, 0, length);
+            Arrays.fill(target, length, target.length, (byte) 0);
+            if (padding > 0) {
+                writeLittleEndianInt(target, length, SKIPPABLE_FRAME_MAGIC);
+                writeLittleEndianInt(target, length + 4, padding - SKIPPABLE_FRAME_HEADER_SIZE);
+            }
+            return true;
+        }
+
+        private void writeLittleEndianInt(byte[] b, int i, int value) {
+            for (int j = 0; j < 4; j++) {
+                b[i + j] = (byte) (value >>> (8 * j));
+            }
+        }
+    };
+
+    private static final int ATTRIBUTES_MASK = 0x07;
+
+    private final int id;
+
+    private CompressionCodec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @param attributes
+     *            the attributes byte of a message
+     * @return the codec, or null if the codec is not supported (e.g. zstd,
+     *         which only exists in message format v2)
+     */
+    static CompressionCodec fromAttributes(byte attributes) {
+        final int id = attributes & ATTRIBUTES_MASK;
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return the number of compression variants, to be tried in order until
+     *         the result fits
+     */
+    int getVariants() {
+        return 1;
+    }
+
+    abstract OutputStream compress(OutputStream out, int variant) throws IOException;
+
+    /**
+     * Writes the compressed data, padded to exactly the length of the target
+     * array.
+     *
+     * @param compressed
+     * @param length
+     *            the length of the compressed data
+     * @param target
+     * @return false if the compressed data cannot be padded to the target
+     *         length, in which case the target is left untouched
+     */
+    abstract boolean writePadded(byte[] compressed, int length, byte[] target);
+}
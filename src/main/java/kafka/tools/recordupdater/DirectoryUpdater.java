@@ -4,10 +4,17 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kafka.tools.recordupdater.api.Record;
 import kafka.tools.recordupdater.api.RecordUpdater;
 
 public class DirectoryUpdater {
@@ -32,6 +39,7 @@ public class DirectoryUpdater {
         public int updatedSegments = 0;
         public long visitedRecords = 0;
         public long updatedRecords = 0;
+        public long messageSetsNotUpdated = 0;
     }
 
     private final File dir;
@@ -53,9 +61,24 @@ public class DirectoryUpdater {
         this.dir = dir;
     }
 
+    /**
+     * Applies the callback's record updater to the records in the directory
+     * that are accepted by the callback's visit methods.
+     * 
+     * Before anything is written, all compressed message sets are checked to
+     * still fit after being updated, so the record updater is applied twice to
+     * their records. If any message set cannot be updated, an
+     * {@link IllegalStateException} is thrown and the directory is left
+     * unchanged.
+     * 
+     * @param callback
+     * @return
+     * @throws IOException
+     */
     public Summary run(Callback callback) throws IOException {
         final Summary s = new Summary();
         final File[] partitionDirectories = dir.listFiles(createPartitionDirectoryFilter(callback));
+        checkMessageSets(partitionDirectories, callback);
         for (File partitionDirectory : partitionDirectories) {
             s.visitedPartitions++;
             logger.info("Visiting partition: {}", FileUtils.getDisplayPath(partitionDirectory));
@@ -68,6 +91,87 @@ public class DirectoryUpdater {
         return s;
     }
 
+    private void checkMessageSets(File[] partitionDirectories, Callback callback) throws IOException {
+        long messageSetsNotUpdated = 0;
+        for (File partitionDirectory : partitionDirectories) {
+            for (File segmentFile : partitionDirectory.listFiles(createSegmentFileFilter())) {
+                // a separate summary, since nothing is updated yet
+                messageSetsNotUpdated += new SegmentFileUpdater(segmentFile)
+                        .check(createProxyRecordUpdater(callback, new Summary()));
+            }
+        }
+        if (messageSetsNotUpdated > 0) {
+            throw new IllegalStateException(messageSetsNotUpdated
+                    + " compressed message sets cannot be updated (see the warnings above), nothing was updated");
+        }
+    }
+
+    /**
+     * Creates a read-only {@link Stream} of all records in the directory.
+     * 
+     * @return
+     */
+    public Stream<Record> stream() {
+        return stream(null);
+    }
+
+    /**
+     * Creates a read-only {@link Stream} of the records in the directory that
+     * are accepted by the callback's visit methods. The callback's
+     * {@link Callback#getRecordUpdater()} method is not used.
+     * 
+     * Compressed message sets are decompressed, so the stream contains the
+     * same records as those passed to the record updater by
+     * {@link #run(Callback)}.
+     * 
+     * The stream splits between segment files, so a parallel stream will read
+     * separate segment files concurrently. Close the stream to release any
+     * segment files that have not been read to the end.
+     * 
+     * @param callback
+     *            the callback to filter by, or null to stream all records
+     * @return
+     */
+    public Stream<Record> stream(Callback callback) {
+        final RecordSpliterator spliterator = createSpliterator(callback);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Creates a read-only {@link Spliterator} of the records in the directory
+     * that are accepted by the callback's visit methods.
+     * 
+     * @param callback
+     *            the callback to filter by, or null to include all records
+     * @return
+     * @see #stream(Callback)
+     */
+    public Spliterator<Record> spliterator(Callback callback) {
+        return createSpliterator(callback);
+    }
+
+    private RecordSpliterator createSpliterator(Callback callback) {
+        final List<RecordSpliterator.Segment> segments = new ArrayList<>();
+        final File[] partitionDirectories = dir.listFiles(createPartitionDirectoryFilter(callback));
+        Arrays.sort(partitionDirectories);
+        for (File partitionDirectory : partitionDirectories) {
+            final String name = partitionDirectory.getName();
+            final int lastIndexOfDash = name.lastIndexOf('-');
+            final String topicName = name.substring(0, lastIndexOfDash);
+            final int partitionNumber = Integer.parseInt(name.substring(lastIndexOfDash + 1));
+
+            final File[] segmentFiles = partitionDirectory.listFiles(createSegmentFileFilter());
+            // segment file names are zero-padded base offsets
+            Arrays.sort(segmentFiles);
+            for (File segmentFile : segmentFiles) {
+                if (callback == null || callback.visitSegment(segmentFile)) {
+                    segments.add(new RecordSpliterator.Segment(topicName, partitionNumber, segmentFile));
+                }
+            }
+        }
+        return new RecordSpliterator(segments, callback);
+    }
+
     private boolean updatePartitionDirectory(File partitionDirectory, Callback callback, Summary s) throws IOException {
         boolean partitionUpdated = false;
         final File[] segmentFiles = partitionDirectory.listFiles(createSegmentFileFilter());
@@ -76,6 +180,9 @@ public class DirectoryUpdater {
 
             final SegmentFileUpdater logFileUpdater = new SegmentFileUpdater(segmentFile);
             final boolean segmentUpdated = logFileUpdater.run(createProxyRecordUpdater(callback, s));
+            // only count records that were actually written to the file
+            s.updatedRecords += logFileUpdater.getRecordsUpdated();
+            s.messageSetsNotUpdated += logFileUpdater.getMessageSetsNotUpdated();
             if (segmentUpdated) {
                 s.updatedSegments++;
                 partitionUpdated = true;
@@ -92,12 +199,7 @@ public class DirectoryUpdater {
                     return false;
                 }
                 s.visitedRecords++;
-
-                final boolean updated = callback.getRecordUpdater().update(offset, key, value);
-                if (updated) {
-                    s.updatedRecords++;
-                }
-                return updated;
+                return callback.getRecordUpdater().update(offset, key, value);
             }
         };
     }
@@ -134,7 +236,7 @@ public class DirectoryUpdater {
                 } catch (NumberFormatException e) {
                     return false;
                 }
-                return callback.visitPartition(prefix, partitionNumber);
+                return callback == null || callback.visitPartition(prefix, partitionNumber);
             }
         };
     }
@@ -0,0 +1,174 @@
+package kafka.tools.recordupdater;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding and decoding of the fields that make up Kafka records on disk.
+ *
+ * Message format v0 and v1 use fixed-width big-endian fields, which are read
+ * and written with absolute {@link ByteBuffer} operations (so that callers can
+ * reuse a single scratch buffer per field). Record batches (message format v2)
+ * additionally use zigzag encoded varints as in Protocol Buffers.
+ *
+ * All methods are allocation free.
+ */
+public final class FieldCodec {
+
+    private FieldCodec() {
+    }
+
+    public static long readInt64(ByteBuffer buffer, int index) {
+        return buffer.getLong(index);
+    }
+
+    public static int readInt32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index);
+    }
+
+    /**
+     * Reads an unsigned 32 bit integer, such as a CRC.
+     */
+    public static long readUnsignedInt32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xffffffffL;
+    }
+
+    public static void writeInt64(ByteBuffer buffer, int index, long value) {
+        buffer.putLong(index, value);
+    }
+
+    public static void writeInt32(ByteBuffer buffer, int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    /**
+     * Writes an unsigned 32 bit integer, such as a CRC.
+     */
+    public static void writeUnsignedInt32(ByteBuffer buffer, int index, long value) {
+        buffer.putInt(index, (int) value);
+    }
+
+    /**
+     * Reads an unsigned big-endian number of arbitrary width (up to 8 bytes).
+     */
+    public static long readUnsigned(byte[] b, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (b[i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Writes an unsigned big-endian number of arbitrary width (up to 8 bytes).
+     */
+    public static void writeUnsigned(byte[] b, int offset, int length, long value) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            b[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    public static int zigZagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int zigZagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a zigzag encoded varint from the current position of the buffer.
+     */
+    public static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new IllegalArgumentException("Varint is too long");
+            }
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return zigZagDecode(value);
+    }
+
+    /**
+     * Reads a zigzag encoded varlong from the current position of the buffer.
+     */
+    public static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Varlong is too long");
+            }
+            b = buffer.get();
+            value |= (b & 0x7fL) << shift;
+            shift += 7;
+        } while (b < 0);
+        return zigZagDecode(value);
+    }
+
+    /**
+     * Writes a zigzag encoded varint at the current position of the buffer.
+     */
+    public static void writeVarint(ByteBuffer buffer, int value) {
+        int v = zigZagEncode(value);
+        while ((v & ~0x7f) != 0) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /**
+     * Writes a zigzag encoded varlong at the current position of the buffer.
+     */
+    public static void writeVarlong(ByteBuffer buffer, long value) {
+        long v = zigZagEncode(value);
+        while ((v & ~0x7fL) != 0) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /**
+     * @return the number of bytes that {@link #writeVarint(ByteBuffer, int)}
+     *         will use for the value
+     */
+    public static int sizeOfVarint(int value) {
+        int v = zigZagEncode(value);
+        int size = 1;
+        while ((v & ~0x7f) != 0) {
+            size++;
+            v >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes that {@link #writeVarlong(ByteBuffer, long)}
+     *         will use for the value
+     */
+    public static int sizeOfVarlong(long value) {
+        long v = zigZagEncode(value);
+        int size = 1;
+        while ((v & ~0x7fL) != 0) {
+            size++;
+            v >>>= 7;
+        }
+        return size;
+    }
+}
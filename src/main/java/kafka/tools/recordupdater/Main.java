@@ -2,7 +2,10 @@ package kafka.tools.recordupdater;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
 
+import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -10,13 +13,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Throwables;
+import com.google.common.cache.CacheStats;
 
 import kafka.tools.recordupdater.DirectoryUpdater.Summary;
+import kafka.tools.recordupdater.api.Record;
 import kafka.tools.recordupdater.api.RecordUpdater;
+import kafka.tools.recordupdater.updaters.AbstractPseudonymizeRecordUpdater;
 import kafka.tools.recordupdater.updaters.DestroyKeyAndValueRecordUpdater;
 import kafka.tools.recordupdater.updaters.DestroyKeyRecordUpdater;
 import kafka.tools.recordupdater.updaters.DestroyValueRecordUpdater;
 import kafka.tools.recordupdater.updaters.EmptyJsonValueUpdater;
+import kafka.tools.recordupdater.updaters.PseudonymizeKeyAndValueRecordUpdater;
+import kafka.tools.recordupdater.updaters.PseudonymizeKeyRecordUpdater;
+import kafka.tools.recordupdater.updaters.PseudonymizeValueRecordUpdater;
 
 /**
  * The command line entrypoint
@@ -25,6 +34,9 @@ public class Main {
 
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
+    @Argument(metaVar = "COMMAND", usage = "The command to run: 'update' (default) updates records in place, 'export' writes the matching records to an output file")
+    private String command = "update";
+
     @Option(name = "--data-dir", usage = "The Apache Kafka log/data directory", required = true)
     private File dataDirectory;
 
@@ -40,9 +52,15 @@ public class Main {
     @Option(name = "--offset-max", usage = "A max (inclusive) offset number for records to update", required = false)
     private Long offsetMax;
 
-    @Option(name = "--updater", usage = "Sets the name (short name or class name) of the updater to apply to records", required = true)
+    @Option(name = "--updater", usage = "Sets the name (short name or class name) of the updater to apply to records", required = false)
     private String updaterClass;
 
+    @Option(name = "--output", usage = "The file to write exported records to", required = false)
+    private File outputFile;
+
+    @Option(name = "--format", usage = "The format of exported records: 'log' (Kafka on-disk format, default) or 'jsonl' (JSON lines)", required = false)
+    private String format = "log";
+
     public static void main(String[] args) throws Exception {
         new Main().run(args);
     }
@@ -58,13 +76,88 @@ public class Main {
             return;
         }
 
+        switch (command) {
+        case "update":
+            if (updaterClass == null) {
+                System.err.println("Option \"--updater\" is required for the 'update' command");
+                parser.printUsage(System.err);
+                return;
+            }
+            runUpdate();
+            break;
+        case "export":
+            if (outputFile == null) {
+                System.err.println("Option \"--output\" is required for the 'export' command");
+                parser.printUsage(System.err);
+                return;
+            }
+            final RecordExporter.Format exportFormat;
+            try {
+                exportFormat = RecordExporter.Format.valueOf(format.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown format: " + format);
+                parser.printUsage(System.err);
+                return;
+            }
+            runExport(exportFormat);
+            break;
+        default:
+            System.err.println("Unknown command: " + command);
+            parser.printUsage(System.err);
+        }
+    }
+
+    private void runUpdate() throws IOException {
         final RecordUpdater recordUpdater = createRecordUpdater();
 
         logger.info("=== Kafka-record-updater ===");
         logger.info("Scanning directory: " + FileUtils.getDisplayPath(dataDirectory));
 
         final DirectoryUpdater directoryUpdater = new DirectoryUpdater(dataDirectory);
-        final Summary summary = directoryUpdater.run(new DirectoryUpdater.Callback() {
+        final Summary summary = directoryUpdater.run(createCallback(recordUpdater));
+
+        logger.info(
+                "Done! Summary:\n - {} / {} partitions updated\n - {} / {} segment files updated\n - {} / {} records updated",
+                summary.updatedPartitions, summary.visitedPartitions, summary.updatedSegments, summary.visitedSegments,
+                summary.updatedRecords, summary.visitedRecords);
+
+        if (recordUpdater instanceof AbstractPseudonymizeRecordUpdater) {
+            final CacheStats cacheStats = ((AbstractPseudonymizeRecordUpdater) recordUpdater).getCacheStats();
+            logger.info("Pseudonym cache: {} hits, {} misses ({} hit rate), {} evictions", cacheStats.hitCount(),
+                    cacheStats.missCount(), cacheStats.hitRate(), cacheStats.evictionCount());
+        }
+
+        if (summary.messageSetsNotUpdated > 0) {
+            logger.error("{} compressed message sets could NOT be updated, see the warnings above",
+                    summary.messageSetsNotUpdated);
+            throw new IllegalStateException(
+                    summary.messageSetsNotUpdated + " compressed message sets could not be updated");
+        }
+    }
+
+    private void runExport(RecordExporter.Format exportFormat) throws IOException {
+        logger.info("=== Kafka-record-updater ===");
+        logger.info("Exporting records from directory: " + FileUtils.getDisplayPath(dataDirectory));
+
+        final DirectoryUpdater directoryUpdater = new DirectoryUpdater(dataDirectory);
+        try (final RecordExporter exporter = new RecordExporter(outputFile, exportFormat);
+                final Stream<Record> records = directoryUpdater.stream(createCallback(null))) {
+            records.forEachOrdered(record -> {
+                try {
+                    exporter.export(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            logger.info("Done! Exported {} records to: {}", exporter.getRecordsExported(),
+                    FileUtils.getDisplayPath(outputFile));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private DirectoryUpdater.Callback createCallback(RecordUpdater recordUpdater) {
+        return new DirectoryUpdater.Callback() {
             @Override
             public boolean visitPartition(String topicName, int partitionNumber) {
                 if (partition != null && partition.intValue() != partitionNumber) {
@@ -84,10 +177,10 @@ public class Main {
 
             @Override
             public boolean visitRecord(long offset) {
-                if (offsetMin != null && offsetMin.longValue() < offset) {
+                if (offsetMin != null && offset < offsetMin.longValue()) {
                     return false;
                 }
-                if (offsetMax != null && offsetMax.longValue() > offset) {
+                if (offsetMax != null && offset > offsetMax.longValue()) {
                     return false;
                 }
                 return true;
@@ -97,12 +190,7 @@ public class Main {
             public RecordUpdater getRecordUpdater() {
                 return recordUpdater;
             }
-        });
-
-        logger.info(
-                "Done! Summary:\n - {} / {} partitions updated\n - {} / {} segment files updated\n - {} / {} records updated",
-                summary.updatedPartitions, summary.visitedPartitions, summary.updatedSegments, summary.visitedSegments,
-                summary.updatedRecords, summary.visitedRecords);
+        };
     }
 
     private RecordUpdater createRecordUpdater() {
@@ -117,6 +205,14 @@ public class Main {
             return new DestroyValueRecordUpdater();
         case "destroy":
             return new DestroyKeyAndValueRecordUpdater();
+        case "pseudonymizekey":
+        case "pseudonymizekeys":
+            return new PseudonymizeKeyRecordUpdater();
+        case "pseudonymizevalue":
+        case "pseudonymizevalues":
+            return new PseudonymizeValueRecordUpdater();
+        case "pseudonymize":
+            return new PseudonymizeKeyAndValueRecordUpdater();
         default:
             try {
                 final Object instance = Class.forName(updaterClass).newInstance();
@@ -0,0 +1,166 @@
+package kafka.tools.recordupdater;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+import kafka.tools.recordupdater.api.Record;
+
+/**
+ * Writes records to an export file, either in the binary on-disk format of
+ * Kafka ({@link Format#LOG}) or as JSON lines ({@link Format#JSONL}).
+ *
+ * In the binary format the records are copied as-is from their segment files.
+ * Records that are adjacent in a segment file are coalesced into a single span
+ * which is copied with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)}, so the bytes don't need to pass
+ * through the heap. The resulting file can itself be read with
+ * {@link SegmentFileReader}. The records of a compressed message set are
+ * exported by copying their wrapper message once, as a whole, so it may
+ * contain more records than were exported.
+ *
+ * Since the binary format carries no topic or partition information, a binary
+ * export can only contain records of a single partition.
+ *
+ * Records must be exported in the order they appear in, i.e. from a sequential
+ * stream.
+ */
+public class RecordExporter implements Closeable {
+
+    public static enum Format {
+        LOG, JSONL
+    }
+
+    private final Format format;
+    private final FileOutputStream out;
+    private final FileChannel outChannel;
+    private final Writer writer;
+
+    // the partition and pending span of adjacent records, only used for the
+    // LOG format
+    private String logTopic;
+    private int logPartition;
+    private File spanFile;
+    private RandomAccessFile spanRaf;
+    private long spanStart;
+    private long spanEnd;
+
+    private long recordsExported = 0;
+
+    public RecordExporter(File file, Format format) throws IOException {
+        this.format = format;
+        this.out = new FileOutputStream(file);
+        this.outChannel = out.getChannel();
+        if (format == Format.JSONL) {
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        } else {
+            writer = null;
+        }
+    }
+
+    public void export(Record record) throws IOException {
+        switch (format) {
+        case LOG:
+            exportLog(record);
+            break;
+        case JSONL:
+            exportJsonLine(record);
+            break;
+        }
+        recordsExported++;
+    }
+
+    public long getRecordsExported() {
+        return recordsExported;
+    }
+
+    private void exportLog(Record record) throws IOException {
+        if (recordsExported == 0) {
+            logTopic = record.getTopic();
+            logPartition = record.getPartition();
+        } else if (!Objects.equals(logTopic, record.getTopic()) || logPartition != record.getPartition()) {
+            throw new IllegalStateException("Cannot export records of more than one partition in " + format
+                    + " format (found " + logTopic + "-" + logPartition + " and " + record.getTopic() + "-"
+                    + record.getPartition() + "). Filter by topic and partition or use the " + Format.JSONL
+                    + " format.");
+        }
+        if (record.getSegmentFile().equals(spanFile) && record.getFilePosition() < spanEnd) {
+            // another record of a compressed message set that is already
+            // being exported
+            return;
+        }
+        if (record.getSegmentFile().equals(spanFile) && record.getFilePosition() == spanEnd) {
+            spanEnd += record.getSize();
+            return;
+        }
+        flushSpan();
+        if (!record.getSegmentFile().equals(spanFile)) {
+            closeSpanFile();
+            spanFile = record.getSegmentFile();
+            spanRaf = new RandomAccessFile(spanFile, "r");
+        }
+        spanStart = record.getFilePosition();
+        spanEnd = spanStart + record.getSize();
+    }
+
+    private void flushSpan() throws IOException {
+        if (spanRaf == null) {
+            return;
+        }
+        final FileChannel inChannel = spanRaf.getChannel();
+        long position = spanStart;
+        while (position < spanEnd) {
+            position += inChannel.transferTo(position, spanEnd - position, outChannel);
+        }
+        spanStart = spanEnd;
+    }
+
+    private void closeSpanFile() throws IOException {
+        if (spanRaf != null) {
+            spanRaf.close();
+            spanRaf = null;
+            spanFile = null;
+        }
+    }
+
+    private void exportJsonLine(Record record) throws IOException {
+        // topic names are restricted to [a-zA-Z0-9._-] so need no escaping
+        writer.write("{\"topic\":\"" + record.getTopic() + "\",\"partition\":" + record.getPartition()
+                + ",\"offset\":" + record.getOffset() + ",\"timestamp\":" + record.getTimestamp() + ",\"key\":"
+                + toJsonBase64(record.getKey()) + ",\"value\":" + toJsonBase64(record.getValue()) + "}\n");
+    }
+
+    /**
+     * Encodes bytes as a base64 JSON string, keeping null (e.g. the value of a
+     * tombstone) apart from an empty array.
+     */
+    private static String toJsonBase64(byte[] bytes) {
+        if (bytes == null) {
+            return "null";
+        }
+        return "\"" + Base64.getEncoder().encodeToString(bytes) + "\"";
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writer != null) {
+                writer.close();
+            } else {
+                flushSpan();
+                closeSpanFile();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package kafka.tools.recordupdater;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import kafka.tools.recordupdater.api.Record;
+
+/**
+ * A {@link Spliterator} of records spanning a list of segment files. Splitting
+ * only ever happens between segment files (and thereby also between
+ * partitions), so each segment file is read sequentially by a single thread
+ * while separate segment files can be read in parallel.
+ */
+class RecordSpliterator implements Spliterator<Record> {
+
+    static class Segment {
+        final String topic;
+        final int partition;
+        final File file;
+
+        Segment(String topic, int partition, File file) {
+            this.topic = topic;
+            this.partition = partition;
+            this.file = file;
+        }
+    }
+
+    private final List<Segment> segments;
+    private final DirectoryUpdater.Callback callback;
+    private final Set<SegmentFileReader> openReaders;
+    private final int end;
+    private int next;
+    private SegmentFileReader reader;
+
+    RecordSpliterator(List<Segment> segments, DirectoryUpdater.Callback callback) {
+        this(segments, callback, ConcurrentHashMap.newKeySet(), 0, segments.size());
+    }
+
+    private RecordSpliterator(List<Segment> segments, DirectoryUpdater.Callback callback,
+            Set<SegmentFileReader> openReaders, int next, int end) {
+        this.segments = segments;
+        this.callback = callback;
+        this.openReaders = openReaders;
+        this.next = next;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Record> action) {
+        try {
+            while (true) {
+                if (reader == null) {
+                    if (next >= end) {
+                        return false;
+                    }
+                    final Segment segment = segments.get(next++);
+                    reader = new SegmentFileReader(segment.file, segment.topic, segment.partition);
+                    openReaders.add(reader);
+                }
+
+                final Record record = reader.read();
+                if (record == null) {
+                    closeReader();
+                } else if (callback == null || callback.visitRecord(record.getOffset())) {
+                    action.accept(record);
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<Record> trySplit() {
+        // count the segment currently being read, if any
+        final int remaining = end - next + (reader == null ? 0 : 1);
+        if (remaining < 2) {
+            return null;
+        }
+        final int mid = end - remaining / 2;
+        final RecordSpliterator prefix = new RecordSpliterator(segments, callback, openReaders, next, mid);
+        // ORDERED requires that the returned spliterator covers the prefix, so
+        // this spliterator continues with the suffix. Any open reader is
+        // handed over to the prefix.
+        prefix.reader = reader;
+        reader = null;
+        next = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Closes any segment files that are still open, e.g. because a stream was
+     * short-circuited before all records were read.
+     */
+    void close() {
+        IOException exception = null;
+        for (SegmentFileReader openReader : openReaders) {
+            try {
+                openReader.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        openReaders.clear();
+        if (exception != null) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private void closeReader() throws IOException {
+        openReaders.remove(reader);
+        reader.close();
+        reader = null;
+    }
+}
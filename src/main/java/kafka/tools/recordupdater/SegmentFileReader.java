@@ -0,0 +1,209 @@
+package kafka.tools.recordupdater;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kafka.tools.recordupdater.BufferPool.PooledOutputStream;
+import kafka.tools.recordupdater.api.Record;
+
+/**
+ * Read-only counterpart to {@link SegmentFileUpdater}. Reads the records of a
+ * Kafka log segment file one at a time, without ever opening the file for
+ * writing.
+ *
+ * Compressed message sets are decompressed, so the reader returns the same
+ * records (with the same offsets) that {@link SegmentFileUpdater} passes to its
+ * record updater. These records share the file position and size of their
+ * wrapper message.
+ *
+ * See {@link SegmentFileUpdater} for a description of the on-disk format.
+ */
+public class SegmentFileReader implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentFileReader.class);
+
+    private static final int HEADER_SIZE = 8 + 4;
+    private static final int ATTRIBUTES_INDEX = 4 + 1;
+    private static final int TIMESTAMP_TYPE_MASK = 0x08;
+
+    private final File file;
+    private final String topic;
+    private final int partition;
+    private final RandomAccessFile raf;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+    private final Deque<Record> innerRecords = new ArrayDeque<>();
+    private final BufferPool bufferPool = BufferPool.getDefault();
+    private final CompressedMessageSetUpdater messageSets;
+    private long recordsRead = 0;
+
+    public SegmentFileReader(File file) throws FileNotFoundException {
+        this(file, null, -1);
+    }
+
+    public SegmentFileReader(File file, String topic, int partition) throws FileNotFoundException {
+        this.file = file;
+        this.topic = topic;
+        this.partition = partition;
+        this.raf = new RandomAccessFile(file, "r");
+        this.messageSets = new CompressedMessageSetUpdater(file, bufferPool);
+    }
+
+    /**
+     * Reads the next record of the segment file. The records of a compressed
+     * message set are decompressed and returned one by one, like
+     * {@link SegmentFileUpdater} passes them to the record updater.
+     *
+     * @return the next record, or null if the end of the file has been reached
+     * @throws IOException
+     */
+    public Record read() throws IOException {
+        while (true) {
+            final Record innerRecord = innerRecords.poll();
+            if (innerRecord != null) {
+                recordsRead++;
+                return innerRecord;
+            }
+
+            final long filePosition = raf.getFilePointer();
+            try {
+                if (raf.read(header, 0, 1) == -1) {
+                    // eof
+                    return null;
+                }
+                raf.readFully(header, 1, HEADER_SIZE - 1);
+
+                final long offset = FieldCodec.readInt64(headerBuffer, 0);
+                final int messageLength = FieldCodec.readInt32(headerBuffer, 8);
+                final byte[] message = new byte[messageLength];
+                raf.readFully(message);
+
+                final Record record = parseMessage(filePosition, HEADER_SIZE + message.length, offset,
+                        ByteBuffer.wrap(message), 0, message.length, -1);
+                final byte attributes = message[ATTRIBUTES_INDEX];
+                final CompressionCodec codec = CompressionCodec.fromAttributes(attributes);
+                if (codec == CompressionCodec.NONE) {
+                    recordsRead++;
+                    return record;
+                }
+                readMessageSet(record, attributes, codec);
+            } catch (EOFException e) {
+                logger.warn("Unexpected EOF at record no. {} in {}", recordsRead + 1, file);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decompresses the inner messages of a compressed wrapper message into
+     * {@link #innerRecords}, the same way as {@link SegmentFileUpdater}.
+     */
+    private void readMessageSet(Record wrapper, byte attributes, CompressionCodec codec) {
+        // with log append time, the inner messages get the wrapper timestamp
+        final long logAppendTime = (attributes & TIMESTAMP_TYPE_MASK) != 0 ? wrapper.getTimestamp() : -1;
+
+        final PooledOutputStream decompressed = bufferPool.newOutputStream();
+        try {
+            messageSets.visitMessages(wrapper.getOffset(), wrapper.getMagicValue(), codec, wrapper.getValue(),
+                    decompressed, (offset, buffer, crcOffset, messageEnd) -> {
+                        innerRecords.add(parseMessage(wrapper.getFilePosition(), wrapper.getSize(), offset, buffer,
+                                crcOffset, messageEnd, logAppendTime));
+                        return false;
+                    });
+        } finally {
+            decompressed.release();
+        }
+    }
+
+    /**
+     * Parses the message that starts (with its crc field) at the given index
+     * of the buffer.
+     */
+    private Record parseMessage(long filePosition, int size, long offset, ByteBuffer buffer, int messageStart,
+            int messageEnd, long logAppendTime) {
+        final byte[] message = buffer.array();
+        // skip crc
+        int i = messageStart + 4;
+        final byte magicValue = message[i++];
+        // skip attributes
+        i++;
+
+        final long timestamp;
+        if (magicValue > 0) {
+            timestamp = logAppendTime == -1 ? FieldCodec.readInt64(buffer, i) : logAppendTime;
+            i += 8;
+        } else {
+            timestamp = -1;
+        }
+
+        final int keyLength = FieldCodec.readInt32(buffer, i);
+        i += 4;
+        final byte[] key = keyLength == -1 ? null : Arrays.copyOfRange(message, i, i + keyLength);
+        i += Math.max(keyLength, 0);
+
+        final int valueLength = FieldCodec.readInt32(buffer, i);
+        i += 4;
+        final byte[] value = valueLength == -1 ? null : Arrays.copyOfRange(message, i, i + valueLength);
+
+        return new Record(topic, partition, file, filePosition, size, offset, magicValue, timestamp, key, value);
+    }
+
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * Creates a sequential {@link Stream} of the records in the segment file.
+     * The file is closed when the stream is closed.
+     *
+     * @return
+     */
+    public Stream<Record> stream() {
+        final Spliterator<Record> spliterator = new Spliterators.AbstractSpliterator<Record>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Record> action) {
+                final Record record;
+                try {
+                    record = read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (record == null) {
+                    return false;
+                }
+                action.accept(record);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
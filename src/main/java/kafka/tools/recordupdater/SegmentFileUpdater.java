@@ -5,15 +5,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.math.IntMath;
-import com.google.common.math.LongMath;
-import com.google.common.primitives.UnsignedBytes;
-
 import kafka.tools.recordupdater.api.RecordUpdater;
 
 /**
@@ -37,6 +34,11 @@ import kafka.tools.recordupdater.api.RecordUpdater;
  * value          : V bytes
  * </pre>
  * 
+ * If the lowest bits of the attributes specify a compression codec, the value
+ * is a compressed set of inner messages in the same format. The record updater
+ * is then applied to the inner messages, see
+ * {@link CompressedMessageSetUpdater}.
+ * 
  * @author Kasper Sørensen
  */
 public class SegmentFileUpdater {
@@ -53,6 +55,15 @@ public class SegmentFileUpdater {
     private final byte[] messageTimestamp = new byte[8];
     private final byte[] messageKeyLength = new byte[LENGTH_BYTES];
     private final byte[] messageValueLength = new byte[LENGTH_BYTES];
+
+    // reusable views for decoding/encoding the scratch arrays above
+    private final ByteBuffer messageOffsetBuffer = ByteBuffer.wrap(messageOffset);
+    private final ByteBuffer messageCrcBuffer = ByteBuffer.wrap(messageCrc);
+    private final ByteBuffer messageKeyLengthBuffer = ByteBuffer.wrap(messageKeyLength);
+    private final ByteBuffer messageValueLengthBuffer = ByteBuffer.wrap(messageValueLength);
+    private final CRC32 crc = new CRC32();
+    private final CompressedMessageSetUpdater compressedMessageSetUpdater;
+
     private byte messageMagicValue;
     private final boolean verifyCrc;
     private long recordsVisited = 0;
@@ -65,13 +76,40 @@ public class SegmentFileUpdater {
     public SegmentFileUpdater(File file, boolean verifyCrc) {
         this.file = file;
         this.verifyCrc = verifyCrc;
+        this.compressedMessageSetUpdater = new CompressedMessageSetUpdater(file, BufferPool.getDefault());
     }
 
     public boolean run(RecordUpdater recordUpdater) throws FileNotFoundException, IOException {
-        try (final RandomAccessFile raf = new RandomAccessFile(file, "rwd")) {
+        scan(recordUpdater, false);
+        logger.info("Updated {} records in {} messages in segment file: {}", recordsUpdated, recordsVisited, file);
+        if (getMessageSetsNotUpdated() > 0) {
+            logger.warn("{} compressed message sets were NOT updated in segment file: {}",
+                    getMessageSetsNotUpdated(), file);
+        }
+        return recordsUpdated > 0;
+    }
+
+    /**
+     * Checks that the compressed message sets of the file can be updated,
+     * i.e. that they can be decompressed and still fit after recompression,
+     * without writing anything. The record updater is only applied to the
+     * records of compressed message sets.
+     * 
+     * @param recordUpdater
+     * @return the number of compressed message sets that could not be updated
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public long check(RecordUpdater recordUpdater) throws FileNotFoundException, IOException {
+        scan(recordUpdater, true);
+        return getMessageSetsNotUpdated();
+    }
+
+    private void scan(RecordUpdater recordUpdater, boolean checkOnly) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, checkOnly ? "r" : "rwd")) {
             while (true) {
                 try {
-                    if (handleNextRecord(recordUpdater, raf)) {
+                    if (handleNextRecord(recordUpdater, raf, checkOnly)) {
                         recordsVisited++;
                     } else {
                         break;
@@ -82,26 +120,38 @@ public class SegmentFileUpdater {
                 }
             }
         }
-        logger.info("Updated {} / {} records in segment file: {}", recordsUpdated, recordsVisited, file);
-        return recordsUpdated > 0;
     }
 
+    /**
+     * @return the number of records that were updated and written to the
+     *         file, including records inside compressed message sets
+     */
     public long getRecordsUpdated() {
         return recordsUpdated;
     }
 
+    /**
+     * @return the number of compressed message sets that were left unchanged
+     *         because they could not be updated, e.g. because the
+     *         recompressed value didn't fit or the codec is not supported
+     */
+    public long getMessageSetsNotUpdated() {
+        return compressedMessageSetUpdater.getMessageSetsNotUpdated();
+    }
+
     public long getRecordsVisited() {
         return recordsVisited;
     }
 
-    private boolean handleNextRecord(RecordUpdater recordUpdater, RandomAccessFile raf) throws IOException {
+    private boolean handleNextRecord(RecordUpdater recordUpdater, RandomAccessFile raf, boolean checkOnly)
+            throws IOException {
         // populate bytes
         if (raf.read(messageOffset) == -1) {
             // eof
             return false;
         }
 
-        final long offset = getLong(messageOffset);
+        final long offset = FieldCodec.readInt64(messageOffsetBuffer, 0);
 
         raf.read(messageLength);
 
@@ -119,7 +169,7 @@ public class SegmentFileUpdater {
 
         final long messageKeyOffset = raf.getFilePointer();
 
-        final int keyLength = getInteger(messageKeyLength);
+        final int keyLength = FieldCodec.readInt32(messageKeyLengthBuffer, 0);
         final byte[] messageKey;
         if (keyLength == -1) {
             messageKey = new byte[0];
@@ -131,11 +181,11 @@ public class SegmentFileUpdater {
         raf.readFully(messageValueLength);
         final long messageValueOffset = raf.getFilePointer();
 
-        final int valueLength = getInteger(messageValueLength);
+        final int valueLength = FieldCodec.readInt32(messageValueLengthBuffer, 0);
         final byte[] messageValue = new byte[valueLength];
         raf.readFully(messageValue);
 
-        final long existingCrc = getLong(messageCrc);
+        final long existingCrc = FieldCodec.readUnsignedInt32(messageCrcBuffer, 0);
 
         if (verifyCrc) {
             // could be turned on for verification
@@ -146,12 +196,15 @@ public class SegmentFileUpdater {
             }
         }
 
-        if (recordUpdater != null && recordUpdater.update(offset, messageKey, messageValue)) {
+        final int updatedRecords = recordUpdater == null ? 0
+                : updateMessage(recordUpdater, offset, attributes, messageKey, messageValue, checkOnly);
+        if (updatedRecords > 0 && !checkOnly) {
             // Update CRC
             final long newCrc = calculateCrc(attributes, messageKey, messageValue);
             if (existingCrc != newCrc) {
                 raf.seek(crcOffset);
-                raf.write(getBytes(newCrc, messageCrc.length));
+                FieldCodec.writeUnsignedInt32(messageCrcBuffer, 0, newCrc);
+                raf.write(messageCrc);
             }
 
             raf.seek(messageKeyOffset);
@@ -161,11 +214,27 @@ public class SegmentFileUpdater {
 
             logger.debug("Updated record with offset={} in segment file: {}", offset, file);
 
-            recordsUpdated++;
+            recordsUpdated += updatedRecords;
         }
         return true;
     }
 
+    /**
+     * @return the number of updated records, which may be more than one for a
+     *         compressed message set
+     */
+    private int updateMessage(RecordUpdater recordUpdater, long offset, byte attributes, byte[] messageKey,
+            byte[] messageValue, boolean checkOnly) throws IOException {
+        final CompressionCodec codec = CompressionCodec.fromAttributes(attributes);
+        if (codec == CompressionCodec.NONE) {
+            if (checkOnly) {
+                return 0;
+            }
+            return recordUpdater.update(offset, messageKey, messageValue) ? 1 : 0;
+        }
+        return compressedMessageSetUpdater.update(offset, messageMagicValue, codec, messageValue, recordUpdater);
+    }
+
     /**
      * Calculates the CRC of the current message.
      * 
@@ -179,7 +248,7 @@ public class SegmentFileUpdater {
      * @return
      */
     private long calculateCrc(byte attributes, final byte[] messageKey, final byte[] messageValue) {
-        final CRC32 crc = new CRC32();
+        crc.reset();
         crc.update(messageMagicValue);
         crc.update(attributes);
         if (messageMagicValue > 0) {
@@ -193,36 +262,19 @@ public class SegmentFileUpdater {
     }
 
     protected static byte[] getBytes(long sum, int arraySize) {
-        final byte[] b = new byte[arraySize];
-        for (int i = 0; i < b.length; i++) {
-            final int reverseIndex = b.length - 1 - i;
-            final long factor = LongMath.pow(256, reverseIndex);
-            final long base = sum / factor;
-            b[i] = UnsignedBytes.checkedCast(base);
-            sum = sum - (base * factor);
+        if (sum < 0 || (arraySize < 8 && sum >>> (8 * arraySize) != 0)) {
+            throw new IllegalArgumentException("Value does not fit in " + arraySize + " bytes: " + sum);
         }
+        final byte[] b = new byte[arraySize];
+        FieldCodec.writeUnsigned(b, 0, arraySize, sum);
         return b;
     }
 
     protected static long getLong(byte[] b) {
-        long sum = 0;
-        for (int i = 0; i < b.length; i++) {
-            final int reverseIndex = b.length - 1 - i;
-            final long factor = LongMath.pow(256, reverseIndex);
-            final int base = UnsignedBytes.toInt(b[i]);
-            sum += base * factor;
-        }
-        return sum;
+        return FieldCodec.readUnsigned(b, 0, b.length);
     }
 
     protected static int getInteger(byte[] b) {
-        int sum = 0;
-        for (int i = 0; i < b.length; i++) {
-            final int reverseIndex = b.length - 1 - i;
-            final int factor = IntMath.pow(256, reverseIndex);
-            final int base = UnsignedBytes.toInt(b[i]);
-            sum += base * factor;
-        }
-        return sum;
+        return (int) FieldCodec.readUnsigned(b, 0, b.length);
     }
 }
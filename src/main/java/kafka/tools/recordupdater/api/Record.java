@@ -0,0 +1,112 @@
+package kafka.tools.recordupdater.api;
+
+import java.io.File;
+
+/**
+ * A read-only view of a single record as found in a Kafka log segment file.
+ *
+ * Besides the key and value, a record knows where it was read from (segment
+ * file, file position and size in bytes) so that consumers can copy the raw
+ * bytes of the record without re-encoding it. Records inside a compressed
+ * message set have the file position and size of their wrapper message.
+ */
+public class Record {
+
+    private final String topic;
+    private final int partition;
+    private final File segmentFile;
+    private final long filePosition;
+    private final int size;
+    private final long offset;
+    private final byte magicValue;
+    private final long timestamp;
+    private final byte[] key;
+    private final byte[] value;
+
+    public Record(String topic, int partition, File segmentFile, long filePosition, int size, long offset,
+            byte magicValue, long timestamp, byte[] key, byte[] value) {
+        this.topic = topic;
+        this.partition = partition;
+        this.segmentFile = segmentFile;
+        this.filePosition = filePosition;
+        this.size = size;
+        this.offset = offset;
+        this.magicValue = magicValue;
+        this.timestamp = timestamp;
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * @return the topic name, or null if the record was not read via a
+     *         partition directory
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the partition number, or -1 if the record was not read via a
+     *         partition directory
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    public File getSegmentFile() {
+        return segmentFile;
+    }
+
+    /**
+     * @return the position in the segment file where the record (starting with
+     *         its offset field) begins, or its compressed wrapper message
+     */
+    public long getFilePosition() {
+        return filePosition;
+    }
+
+    /**
+     * @return the total number of bytes that the record (or its compressed
+     *         wrapper message) occupies in the segment file, including the
+     *         offset and message length fields
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public byte getMagicValue() {
+        return magicValue;
+    }
+
+    /**
+     * @return the record timestamp, or -1 if the message format does not carry
+     *         timestamps (magic value 0)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the record key, or null if the record has no key
+     */
+    public byte[] getKey() {
+        return key;
+    }
+
+    /**
+     * @return the record value, or null if the record has no value (a
+     *         tombstone)
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Record[topic=" + topic + ",partition=" + partition + ",offset=" + offset + "]";
+    }
+}
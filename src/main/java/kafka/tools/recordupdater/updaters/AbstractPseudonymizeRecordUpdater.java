@@ -0,0 +1,183 @@
+package kafka.tools.recordupdater.updaters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.io.Files;
+
+import kafka.tools.recordupdater.api.RecordUpdater;
+
+/**
+ * Abstract {@link RecordUpdater} that replaces bytes with a pseudonym (token)
+ * of the same length. The token is derived from a keyed hash (HMAC-SHA256) of
+ * the original bytes, so the same input always yields the same token and
+ * downstream joins keep working.
+ *
+ * The token preserves the character class of each byte: digits become digits,
+ * lower case letters become lower case letters and upper case letters become
+ * upper case letters. All other bytes (punctuation, whitespace, non-ASCII) are
+ * kept as-is, so e.g. e-mail addresses or dashed IDs keep their format.
+ * Letters and digits are derived from the hash of the entire input though, so
+ * field names of structured values (e.g. JSON) and shared prefixes of IDs are
+ * not preserved. Only use it for keys or values that are identifiers as a
+ * whole.
+ *
+ * Since the same values tend to repeat many times, tokens are kept in a cache
+ * which is bounded by the number of bytes it holds. Values larger than a
+ * configurable size are never cached, since they are unlikely to repeat.
+ *
+ * The secret is read from the file named by the 'pseudonymize.secret.file'
+ * system property or the PSEUDONYMIZE_SECRET_FILE environment variable, from
+ * the PSEUDONYMIZE_SECRET environment variable, or (visible to other users of
+ * the machine, so not recommended) from the 'pseudonymize.secret' system
+ * property.
+ */
+public abstract class AbstractPseudonymizeRecordUpdater implements RecordUpdater {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec secretKey;
+    private final ThreadLocal<Mac> mac;
+    private final LoadingCache<ByteBuffer, byte[]> cache;
+    private final int maxCachedValueSize;
+
+    public AbstractPseudonymizeRecordUpdater() {
+        this(getSecret(), Long.parseLong(System.getProperty("pseudonymize.cache.bytes", "67108864")),
+                Integer.parseInt(System.getProperty("pseudonymize.cache.max.value.size", "1024")));
+    }
+
+    /**
+     * @param secret
+     *            the HMAC secret
+     * @param maxCacheBytes
+     *            the maximum number of bytes (originals plus tokens) to cache
+     * @param maxCachedValueSize
+     *            the maximum size of values to cache
+     */
+    public AbstractPseudonymizeRecordUpdater(byte[] secret, long maxCacheBytes, int maxCachedValueSize) {
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("Secret cannot be null or empty");
+        }
+        this.secretKey = new SecretKeySpec(secret, ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::createMac);
+        this.maxCachedValueSize = maxCachedValueSize;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maxCacheBytes)
+                .weigher(new Weigher<ByteBuffer, byte[]>() {
+                    @Override
+                    public int weigh(ByteBuffer original, byte[] token) {
+                        return original.capacity() + token.length;
+                    }
+                }).recordStats().build(new CacheLoader<ByteBuffer, byte[]>() {
+                    @Override
+                    public byte[] load(ByteBuffer original) {
+                        return createToken(original.array());
+                    }
+                });
+    }
+
+    private static byte[] getSecret() {
+        String secretFile = System.getProperty("pseudonymize.secret.file");
+        if (secretFile == null) {
+            secretFile = System.getenv("PSEUDONYMIZE_SECRET_FILE");
+        }
+        String secret;
+        if (secretFile != null) {
+            try {
+                secret = Files.toString(new File(secretFile), StandardCharsets.UTF_8).trim();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read secret file: " + secretFile, e);
+            }
+        } else {
+            secret = System.getenv("PSEUDONYMIZE_SECRET");
+            if (secret == null) {
+                secret = System.getProperty("pseudonymize.secret");
+            }
+        }
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("A secret must be configured, either as a file "
+                    + "('pseudonymize.secret.file' system property or PSEUDONYMIZE_SECRET_FILE environment variable), "
+                    + "in the PSEUDONYMIZE_SECRET environment variable "
+                    + "or in the 'pseudonymize.secret' system property");
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Mac createMac() {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secretKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected boolean pseudonymize(byte[] v) {
+        if (v == null || v.length == 0) {
+            return false;
+        }
+        final byte[] token;
+        if (v.length > maxCachedValueSize) {
+            token = createToken(v);
+        } else {
+            // the cache key must not change when v is overwritten below
+            token = cache.getUnchecked(ByteBuffer.wrap(v.clone()));
+        }
+        if (Arrays.equals(v, token)) {
+            return false;
+        }
+        System.arraycopy(token, 0, v, 0, v.length);
+        return true;
+    }
+
+    private byte[] createToken(byte[] original) {
+        final Mac mac = this.mac.get();
+        final byte[] token = new byte[original.length];
+        byte[] hash = null;
+        for (int i = 0; i < original.length; i++) {
+            final int hashIndex = i % mac.getMacLength();
+            if (hashIndex == 0) {
+                // derive another block of hash bytes for long inputs
+                mac.update(original);
+                mac.update(ByteBuffer.allocate(4).putInt(i / mac.getMacLength()).array());
+                hash = mac.doFinal();
+            }
+            token[i] = mapToCharacterClass(original[i], hash[hashIndex]);
+        }
+        return token;
+    }
+
+    private static byte mapToCharacterClass(byte original, byte hash) {
+        final int h = hash & 0xff;
+        if (original >= '0' && original <= '9') {
+            return (byte) ('0' + h % 10);
+        }
+        if (original >= 'a' && original <= 'z') {
+            return (byte) ('a' + h % 26);
+        }
+        if (original >= 'A' && original <= 'Z') {
+            return (byte) ('A' + h % 26);
+        }
+        return original;
+    }
+
+    /**
+     * @return statistics (hit rate, evictions etc.) of the token cache
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,21 @@
+package kafka.tools.recordupdater.updaters;
+
+import kafka.tools.recordupdater.api.RecordUpdater;
+
+public class PseudonymizeKeyAndValueRecordUpdater extends AbstractPseudonymizeRecordUpdater implements RecordUpdater {
+
+    public PseudonymizeKeyAndValueRecordUpdater() {
+        super();
+    }
+
+    public PseudonymizeKeyAndValueRecordUpdater(byte[] secret, long maxCacheBytes, int maxCachedValueSize) {
+        super(secret, maxCacheBytes, maxCachedValueSize);
+    }
+
+    @Override
+    public boolean update(long offset, byte[] key, byte[] value) {
+        final boolean pseudonymizeKey = pseudonymize(key);
+        final boolean pseudonymizeValue = pseudonymize(value);
+        return pseudonymizeKey || pseudonymizeValue;
+    }
+}
@@ -0,0 +1,19 @@
+package kafka.tools.recordupdater.updaters;
+
+import kafka.tools.recordupdater.api.RecordUpdater;
+
+public class PseudonymizeKeyRecordUpdater extends AbstractPseudonymizeRecordUpdater implements RecordUpdater {
+
+    public PseudonymizeKeyRecordUpdater() {
+        super();
+    }
+
+    public PseudonymizeKeyRecordUpdater(byte[] secret, long maxCacheBytes, int maxCachedValueSize) {
+        super(secret, maxCacheBytes, maxCachedValueSize);
+    }
+
+    @Override
+    public boolean update(long offset, byte[] key, byte[] value) {
+        return pseudonymize(key);
+    }
+}
@@ -0,0 +1,390 @@
+package kafka.tools.recordupdater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xerial.snappy.SnappyInputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import kafka.tools.recordupdater.api.Record;
+import kafka.tools.recordupdater.api.RecordUpdater;
+import kafka.tools.recordupdater.updaters.DestroyValueRecordUpdater;
+import kafka.tools.recordupdater.updaters.PseudonymizeValueRecordUpdater;
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+public class CompressedMessageSetUpdaterTest {
+
+    private static final long WRAPPER_OFFSET = 42;
+
+    private static final File HELLO_DIR = new File("src/test/resources/example-log-dir-hello");
+
+    private static final String[] JSON_VALUES = createJsonValues(20);
+
+    private static final String[] VALUES = { "customer 1234 ordered a book", "customer 5678 ordered a pen",
+            "customer 1234 ordered a lamp" };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testUpdateGzipMessageSet() throws Exception {
+        testUpdateMessageSet(CompressionCodec.GZIP);
+    }
+
+    @Test
+    public void testUpdateSnappyMessageSet() throws Exception {
+        testUpdateMessageSet(CompressionCodec.SNAPPY);
+    }
+
+    @Test
+    public void testUpdateLz4MessageSet() throws Exception {
+        testUpdateMessageSet(CompressionCodec.LZ4);
+    }
+
+    @Test
+    public void testPaddingIsIgnoredByDecompressors() throws Exception {
+        final byte[] data = createInnerMessages();
+        for (CompressionCodec codec : Arrays.asList(CompressionCodec.GZIP, CompressionCodec.SNAPPY,
+                CompressionCodec.LZ4)) {
+            final byte[] compressed = compress(codec, data);
+            for (int padding = 0; padding < 100; padding++) {
+                final byte[] target = new byte[compressed.length + padding];
+                if (codec.writePadded(compressed, compressed.length, target)) {
+                    assertEquals(codec + " with padding " + padding, Arrays.toString(data),
+                            Arrays.toString(decompress(codec, target)));
+                } else {
+                    assertTrue(codec + " with padding " + padding,
+                            (codec == CompressionCodec.SNAPPY && padding % 5 == 4 && padding < 15)
+                                    || (codec == CompressionCodec.LZ4 && padding < 8));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBufferPoolReusesBuffers() throws Exception {
+        final BufferPool bufferPool = new BufferPool(2, 1024 * 1024);
+        final CompressedMessageSetUpdater updater = new CompressedMessageSetUpdater(new File("test"), bufferPool);
+        final byte[] value = compress(CompressionCodec.GZIP, createInnerMessages());
+        updater.update(WRAPPER_OFFSET, (byte) 1, CompressionCodec.GZIP, value, new DestroyValueRecordUpdater());
+        assertEquals(2, bufferPool.getPooledBufferCount());
+        updater.update(WRAPPER_OFFSET, (byte) 1, CompressionCodec.GZIP, value, new DestroyValueRecordUpdater());
+        assertEquals(2, bufferPool.getPooledBufferCount());
+    }
+
+    @Test
+    public void testMessageSetThatDoesNotFitIsNotCounted() throws Exception {
+        final char[] chars = new char[1000];
+        Arrays.fill(chars, 'a');
+        final String compressible = new String(chars);
+        final File file = new File("target/testMessageSetThatDoesNotFit.log");
+        final byte[] original = createWrapperMessage(CompressionCodec.GZIP,
+                compress(CompressionCodec.GZIP, createInnerMessages(compressible, compressible)));
+        Files.write(original, file);
+
+        // random values compress much worse than the original ones
+        final Random random = new Random(0);
+        final SegmentFileUpdater updater = new SegmentFileUpdater(file);
+        updater.run(new RecordUpdater() {
+            @Override
+            public boolean update(long offset, byte[] key, byte[] value) {
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = (byte) ('a' + random.nextInt(26));
+                }
+                return true;
+            }
+        });
+        assertEquals(0, updater.getRecordsUpdated());
+        assertEquals(1, updater.getMessageSetsNotUpdated());
+        assertArrayEquals(original, Files.toByteArray(file));
+    }
+
+    @Test
+    public void testCorruptMessageSetIsSkipped() throws Exception {
+        for (CompressionCodec codec : Arrays.asList(CompressionCodec.GZIP, CompressionCodec.SNAPPY,
+                CompressionCodec.LZ4)) {
+            final byte[] compressed = compress(codec, createInnerMessages());
+            final byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+            final byte[] wrapper = createWrapperMessage(codec, truncated);
+            final byte[] plain = createMessage((byte) 0, VALUES[0].getBytes(StandardCharsets.UTF_8));
+
+            final File file = new File("target/testCorruptMessageSetIsSkipped-" + codec + ".log");
+            Files.write(ByteBuffer.allocate(wrapper.length + 8 + plain.length).put(wrapper)
+                    .putLong(WRAPPER_OFFSET + 1).put(plain).array(), file);
+
+            // the plain message after the corrupt message set is still visited
+            final List<Long> visitedOffsets = new ArrayList<>();
+            final SegmentFileUpdater updater = new SegmentFileUpdater(file);
+            updater.run(new RecordUpdater() {
+                @Override
+                public boolean update(long offset, byte[] key, byte[] value) {
+                    visitedOffsets.add(offset);
+                    return false;
+                }
+            });
+            assertEquals(codec.toString(), Arrays.asList(WRAPPER_OFFSET + 1), visitedOffsets);
+            assertEquals(2, updater.getRecordsVisited());
+            assertEquals(1, updater.getMessageSetsNotUpdated());
+
+            try (final SegmentFileReader reader = new SegmentFileReader(file)) {
+                assertEquals(WRAPPER_OFFSET + 1, reader.read().getOffset());
+                assertEquals(null, reader.read());
+            }
+        }
+    }
+
+    @Test
+    public void testPseudonymizedMessageSetDoesNotFit() throws Exception {
+        for (CompressionCodec codec : Arrays.asList(CompressionCodec.GZIP, CompressionCodec.SNAPPY,
+                CompressionCodec.LZ4)) {
+            final File file = new File("target/testPseudonymizedMessageSetDoesNotFit-" + codec + ".log");
+            final byte[] original = createWrapperMessage(codec, compress(codec, createInnerMessages(JSON_VALUES)));
+            Files.write(original, file);
+
+            final SegmentFileUpdater updater = new SegmentFileUpdater(file);
+            assertEquals(codec.toString(), 1, updater.check(createPseudonymizeUpdater()));
+            assertArrayEquals(original, Files.toByteArray(file));
+        }
+    }
+
+    @Test
+    public void testUpdateFailsBeforeWriting() throws Exception {
+        final File dir = temporaryFolder.newFolder("data");
+        Files.copy(new File(HELLO_DIR, "meta.properties"), new File(dir, "meta.properties"));
+        final File partitionDir = new File(dir, "hello-0");
+        partitionDir.mkdir();
+        final File plainSegment = new File(partitionDir, "00000000000000000000.log");
+        Files.copy(new File(HELLO_DIR, "hello-0/00000000000000000000.log"), plainSegment);
+        final File compressedSegment = new File(partitionDir,
+                String.format("%020d.log", WRAPPER_OFFSET - JSON_VALUES.length + 1));
+        Files.write(createWrapperMessage(CompressionCodec.GZIP,
+                compress(CompressionCodec.GZIP, createInnerMessages(JSON_VALUES))), compressedSegment);
+        final byte[] plainBytes = Files.toByteArray(plainSegment);
+        final byte[] compressedBytes = Files.toByteArray(compressedSegment);
+
+        final DirectoryUpdater directoryUpdater = new DirectoryUpdater(dir);
+        try {
+            directoryUpdater.run(createCallback(createPseudonymizeUpdater()));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the plain segment comes first, but is not updated either
+        assertArrayEquals(plainBytes, Files.toByteArray(plainSegment));
+        assertArrayEquals(compressedBytes, Files.toByteArray(compressedSegment));
+
+        final DirectoryUpdater.Summary summary = directoryUpdater
+                .run(createCallback(new DestroyValueRecordUpdater()));
+        assertEquals(6 + JSON_VALUES.length, summary.updatedRecords);
+        assertEquals(0, summary.messageSetsNotUpdated);
+    }
+
+    private static String[] createJsonValues(int count) {
+        final String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = "{\"customerId\":\"CUST-1000" + (10 + i) + "\",\"name\":\"Customer " + i
+                    + "\",\"email\":\"customer" + i + "@example.com\",\"amount\":" + (i * 7 % 100) + ".99}";
+        }
+        return values;
+    }
+
+    private static RecordUpdater createPseudonymizeUpdater() {
+        return new PseudonymizeValueRecordUpdater("s3cr3t".getBytes(StandardCharsets.UTF_8), 1024 * 1024, 1024);
+    }
+
+    private static DirectoryUpdater.Callback createCallback(RecordUpdater recordUpdater) {
+        return new DirectoryUpdater.Callback() {
+            @Override
+            public boolean visitPartition(String topicName, int partitionNumber) {
+                return true;
+            }
+
+            @Override
+            public boolean visitSegment(File segmentFile) {
+                return true;
+            }
+
+            @Override
+            public boolean visitRecord(long offset) {
+                return true;
+            }
+
+            @Override
+            public RecordUpdater getRecordUpdater() {
+                return recordUpdater;
+            }
+        };
+    }
+
+    private void testUpdateMessageSet(CompressionCodec codec) throws Exception {
+        final File file = new File("target/testUpdateMessageSet-" + codec + ".log");
+        Files.write(createWrapperMessage(codec, compress(codec, createInnerMessages())), file);
+        final long fileLength = file.length();
+
+        final List<Long> visitedOffsets = new ArrayList<>();
+        final SegmentFileUpdater updater = new SegmentFileUpdater(file, true);
+        updater.run(new RecordUpdater() {
+            @Override
+            public boolean update(long offset, byte[] key, byte[] value) {
+                visitedOffsets.add(offset);
+                if (offset == WRAPPER_OFFSET - 1) {
+                    Arrays.fill(value, (byte) '*');
+                    return true;
+                }
+                return false;
+            }
+        });
+        assertEquals(Arrays.asList(WRAPPER_OFFSET - 2, WRAPPER_OFFSET - 1, WRAPPER_OFFSET), visitedOffsets);
+        assertEquals(1, updater.getRecordsUpdated());
+        assertEquals(0, updater.getMessageSetsNotUpdated());
+        assertEquals(fileLength, file.length());
+
+        // verify the wrapper CRC
+        new SegmentFileUpdater(file, true).run(null);
+
+        // skip the offset, length, crc, magic, attributes, timestamp, key length
+        // and value length of the wrapper message
+        final byte[] bytes = Files.toByteArray(file);
+        final byte[] compressedValue = Arrays.copyOfRange(bytes, 8 + 4 + 4 + 1 + 1 + 8 + 4 + 4, bytes.length);
+        final byte[] inner = decompress(codec, compressedValue);
+        assertEquals(Arrays.asList(VALUES[0], "***************************", VALUES[2]), readInnerValues(inner));
+    }
+
+    @Test
+    public void testReadAndExportMessageSet() throws Exception {
+        final File file = new File("target/testReadAndExportMessageSet.log");
+        Files.write(createWrapperMessage(CompressionCodec.SNAPPY,
+                compress(CompressionCodec.SNAPPY, createInnerMessages())), file);
+
+        final File exportFile = new File("target/testReadAndExportMessageSet-export.log");
+        try (final SegmentFileReader reader = new SegmentFileReader(file);
+                final RecordExporter exporter = new RecordExporter(exportFile, RecordExporter.Format.LOG)) {
+            for (int i = 0; i < VALUES.length; i++) {
+                final Record record = reader.read();
+                assertEquals(WRAPPER_OFFSET - 2 + i, record.getOffset());
+                assertEquals(VALUES[i], new String(record.getValue(), StandardCharsets.UTF_8));
+                assertEquals(0, record.getFilePosition());
+                assertEquals(file.length(), record.getSize());
+                exporter.export(record);
+            }
+            assertEquals(null, reader.read());
+            assertEquals(3, reader.getRecordsRead());
+        }
+
+        // the wrapper message is exported once
+        assertArrayEquals(Files.toByteArray(file), Files.toByteArray(exportFile));
+    }
+
+    private byte[] createInnerMessages() {
+        return createInnerMessages(VALUES);
+    }
+
+    private byte[] createInnerMessages(String... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 0; i < values.length; i++) {
+            final byte[] value = values[i].getBytes(StandardCharsets.UTF_8);
+            buffer.putLong(i);
+            buffer.put(createMessage((byte) 0, value));
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Creates a message (with its length but without an offset) in message
+     * format v1, with a null key.
+     */
+    private byte[] createMessage(byte attributes, byte[] value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 1 + 1 + 8 + 4 + 4 + value.length);
+        buffer.putInt(buffer.capacity() - 4);
+        buffer.putInt(0);
+        buffer.put((byte) 1);
+        buffer.put(attributes);
+        buffer.putLong(1490069412341l);
+        buffer.putInt(-1);
+        buffer.putInt(value.length);
+        buffer.put(value);
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, buffer.capacity() - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private byte[] createWrapperMessage(CompressionCodec codec, byte[] compressed) {
+        final byte[] message = createMessage((byte) codec.ordinal(), compressed);
+        return ByteBuffer.allocate(8 + message.length).putLong(WRAPPER_OFFSET).put(message).array();
+    }
+
+    private List<String> readInnerValues(byte[] inner) {
+        final List<String> values = new ArrayList<>();
+        final ByteBuffer buffer = ByteBuffer.wrap(inner);
+        while (buffer.hasRemaining()) {
+            buffer.getLong();
+            final byte[] message = new byte[buffer.getInt()];
+            buffer.get(message);
+
+            final CRC32 crc = new CRC32();
+            crc.update(message, 4, message.length - 4);
+            assertEquals(crc.getValue(), ByteBuffer.wrap(message).getInt() & 0xffffffffL);
+
+            // skip crc, magic, attributes, timestamp, key length and value length
+            values.add(new String(message, 4 + 1 + 1 + 8 + 4 + 4, message.length - 22, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private byte[] compress(CompressionCodec codec, byte[] data) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final OutputStream out = codec.compress(baos, 0)) {
+            out.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decompresses with the plain library streams, like a Kafka consumer would.
+     */
+    private byte[] decompress(CompressionCodec codec, byte[] compressed) throws Exception {
+        final ByteArrayInputStream bais = new ByteArrayInputStream(compressed);
+        final InputStream in;
+        switch (codec) {
+        case GZIP:
+            in = new GZIPInputStream(bais);
+            break;
+        case SNAPPY:
+            in = new SnappyInputStream(bais);
+            break;
+        case LZ4:
+            in = new LZ4FrameInputStream(bais);
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package kafka.tools.recordupdater;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+import kafka.tools.recordupdater.api.Record;
+import kafka.tools.recordupdater.api.RecordUpdater;
+
+public class DirectoryUpdaterTest {
+
+    private static final File HELLO_DIR = new File("src/test/resources/example-log-dir-hello");
+    private static final File HELLO_SEGMENT = new File(HELLO_DIR, "hello-0/00000000000000000000.log");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final DirectoryUpdater directoryUpdater = new DirectoryUpdater(HELLO_DIR);
+
+    /**
+     * Creates a data directory with 3 partitions of 4 segments each, all being
+     * copies of the hello segment.
+     */
+    private File createMultiPartitionDirectory() throws Exception {
+        final File dir = temporaryFolder.newFolder("multi");
+        Files.copy(new File(HELLO_DIR, "meta.properties"), new File(dir, "meta.properties"));
+        for (String partitionName : Arrays.asList("a-0", "a-1", "b-0")) {
+            final File partitionDir = new File(dir, partitionName);
+            partitionDir.mkdir();
+            for (int segment = 0; segment < 4; segment++) {
+                Files.copy(HELLO_SEGMENT, new File(partitionDir, String.format("%020d.log", segment * 6)));
+            }
+        }
+        return dir;
+    }
+
+    private static String describe(Record r) {
+        return r.getTopic() + "-" + r.getPartition() + "/" + r.getSegmentFile().getName() + "@" + r.getOffset();
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        try (final Stream<Record> stream = directoryUpdater.stream()) {
+            final List<String> values = stream.map(r -> r.getTopic() + "-" + r.getPartition() + "@" + r.getOffset()
+                    + ":" + new String(r.getValue())).collect(Collectors.toList());
+            assertEquals("[hello-0@0:hello, hello-0@1:world, hello-0@2:this is a test, "
+                    + "hello-0@3:author: Kasper Sorensen, hello-0@4:project: kafka-record-updater, hello-0@5:status: WIP]",
+                    values.toString());
+        }
+    }
+
+    @Test
+    public void testStreamWithCallback() throws Exception {
+        final DirectoryUpdater.Callback callback = new DirectoryUpdater.Callback() {
+            @Override
+            public boolean visitPartition(String topicName, int partitionNumber) {
+                return true;
+            }
+
+            @Override
+            public boolean visitSegment(File segmentFile) {
+                return true;
+            }
+
+            @Override
+            public boolean visitRecord(long offset) {
+                return offset >= 2 && offset <= 3;
+            }
+
+            @Override
+            public RecordUpdater getRecordUpdater() {
+                return null;
+            }
+        };
+        try (final Stream<Record> stream = directoryUpdater.stream(callback)) {
+            assertEquals(Arrays.asList(2l, 3l), stream.map(Record::getOffset).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testParallelStreamKeepsOrder() throws Exception {
+        try (final Stream<Record> stream = directoryUpdater.stream().parallel()) {
+            assertEquals(Arrays.asList(0l, 1l, 2l, 3l, 4l, 5l),
+                    stream.map(Record::getOffset).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testParallelStreamAcrossPartitionsAndSegments() throws Exception {
+        final DirectoryUpdater multiUpdater = new DirectoryUpdater(createMultiPartitionDirectory());
+
+        final List<String> sequential;
+        try (final Stream<Record> stream = multiUpdater.stream()) {
+            sequential = stream.map(DirectoryUpdaterTest::describe).collect(Collectors.toList());
+        }
+        assertEquals(3 * 4 * 6, sequential.size());
+        assertEquals("a-0/00000000000000000000.log@0", sequential.get(0));
+        assertEquals("a-0/00000000000000000006.log@0", sequential.get(6));
+        assertEquals("a-1/00000000000000000000.log@0", sequential.get(24));
+        assertEquals("b-0/00000000000000000018.log@5", sequential.get(71));
+
+        try (final Stream<Record> stream = multiUpdater.stream().parallel()) {
+            assertEquals(sequential, stream.map(DirectoryUpdaterTest::describe).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testSplitHandsOverOpenSegment() throws Exception {
+        final DirectoryUpdater multiUpdater = new DirectoryUpdater(createMultiPartitionDirectory());
+        final Spliterator<Record> suffix = multiUpdater.spliterator(null);
+        final List<String> records = new ArrayList<>();
+
+        // start reading the first segment, then split
+        suffix.tryAdvance(r -> records.add(describe(r)));
+        final Spliterator<Record> prefix = suffix.trySplit();
+        prefix.forEachRemaining(r -> records.add(describe(r)));
+        final int prefixEnd = records.size();
+        suffix.forEachRemaining(r -> records.add(describe(r)));
+
+        // the prefix continues the open segment and ends at a segment boundary
+        assertEquals("a-0/00000000000000000000.log@1", records.get(1));
+        assertEquals(0, prefixEnd % 6);
+        assertEquals(3 * 4 * 6, records.size());
+        try (final Stream<Record> stream = multiUpdater.stream()) {
+            assertEquals(stream.map(DirectoryUpdaterTest::describe).collect(Collectors.toList()), records);
+        }
+
+        // splits stop at single segments
+        final Spliterator<Record> single = multiUpdater.spliterator(null);
+        int spliterators = 1;
+        final List<Spliterator<Record>> pending = new ArrayList<>(Arrays.asList(single));
+        while (!pending.isEmpty()) {
+            final Spliterator<Record> split = pending.get(0).trySplit();
+            if (split == null) {
+                pending.remove(0);
+            } else {
+                pending.add(split);
+                spliterators++;
+            }
+        }
+        assertEquals(3 * 4, spliterators);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExportLogFormatRejectsMultiplePartitions() throws Exception {
+        final DirectoryUpdater multiUpdater = new DirectoryUpdater(createMultiPartitionDirectory());
+        final File exportFile = temporaryFolder.newFile("export.log");
+        try (final RecordExporter exporter = new RecordExporter(exportFile, RecordExporter.Format.LOG);
+                final Stream<Record> stream = multiUpdater.stream()) {
+            stream.forEachOrdered(r -> {
+                try {
+                    exporter.export(r);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testExportLogFormat() throws Exception {
+        final File exportFile = new File("target/testExportLogFormat.log");
+        try (final RecordExporter exporter = new RecordExporter(exportFile, RecordExporter.Format.LOG);
+                final Stream<Record> stream = directoryUpdater.stream()) {
+            stream.filter(r -> r.getOffset() != 2).forEachOrdered(r -> {
+                try {
+                    exporter.export(r);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertEquals(5, exporter.getRecordsExported());
+        }
+
+        // the export is itself a valid segment file
+        final SegmentFileUpdater verifier = new SegmentFileUpdater(exportFile, true);
+        verifier.run(null);
+        assertEquals(5, verifier.getRecordsVisited());
+
+        try (final SegmentFileReader reader = new SegmentFileReader(exportFile)) {
+            assertEquals(Arrays.asList(0l, 1l, 3l, 4l, 5l),
+                    reader.stream().map(Record::getOffset).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testExportJsonLinesFormat() throws Exception {
+        final File exportFile = new File("target/testExportJsonLinesFormat.jsonl");
+        try (final RecordExporter exporter = new RecordExporter(exportFile, RecordExporter.Format.JSONL);
+                final Stream<Record> stream = directoryUpdater.stream()) {
+            stream.limit(1).forEachOrdered(r -> {
+                try {
+                    exporter.export(r);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        assertEquals("{\"topic\":\"hello\",\"partition\":0,\"offset\":0,\"timestamp\":1490069412341,\"key\":null,"
+                + "\"value\":\"aGVsbG8=\"}\n", Files.toString(exportFile, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExportJsonLinesKeepsNullApartFromEmpty() throws Exception {
+        // a message in format v0 with an empty key and a null value (tombstone)
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 4 + 1 + 1 + 4 + 4);
+        buffer.putLong(7).putInt(buffer.capacity() - 12).putInt(0).put((byte) 0).put((byte) 0).putInt(0).putInt(-1);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 16, buffer.capacity() - 16);
+        buffer.putInt(12, (int) crc.getValue());
+        final File segmentFile = temporaryFolder.newFile("tombstone.log");
+        Files.write(buffer.array(), segmentFile);
+
+        final File exportFile = temporaryFolder.newFile("tombstone.jsonl");
+        try (final SegmentFileReader reader = new SegmentFileReader(segmentFile, "t", 0);
+                final RecordExporter exporter = new RecordExporter(exportFile, RecordExporter.Format.JSONL)) {
+            final Record record = reader.read();
+            assertEquals(0, record.getKey().length);
+            assertEquals(null, record.getValue());
+            exporter.export(record);
+        }
+        assertEquals("{\"topic\":\"t\",\"partition\":0,\"offset\":7,\"timestamp\":-1,\"key\":\"\",\"value\":null}\n",
+                Files.toString(exportFile, StandardCharsets.UTF_8));
+    }
+}
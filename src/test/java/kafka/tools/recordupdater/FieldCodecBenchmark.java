@@ -0,0 +1,101 @@
+package kafka.tools.recordupdater;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.io.Files;
+
+/**
+ * Compares decoding the fixed-width fields of every record in
+ * example-log-health-check.log with the original helpers and with
+ * {@link FieldCodec}. Like in {@link SegmentFileUpdater}, fields are first
+ * copied into reused scratch arrays.
+ *
+ * Run the main method from the project directory with the test classpath,
+ * after mvn test-compile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldCodecBenchmark {
+
+    private byte[] segment;
+    private int[] recordPositions;
+
+    private final byte[] messageOffset = new byte[8];
+    private final byte[] messageLength = new byte[4];
+    private final byte[] messageCrc = new byte[4];
+    private final byte[] messageKeyLength = new byte[4];
+    private final ByteBuffer messageOffsetBuffer = ByteBuffer.wrap(messageOffset);
+    private final ByteBuffer messageLengthBuffer = ByteBuffer.wrap(messageLength);
+    private final ByteBuffer messageCrcBuffer = ByteBuffer.wrap(messageCrc);
+    private final ByteBuffer messageKeyLengthBuffer = ByteBuffer.wrap(messageKeyLength);
+
+    @Setup
+    public void setup() throws Exception {
+        segment = Files.toByteArray(new File("src/test/resources/example-log-health-check.log"));
+        final ByteBuffer buffer = ByteBuffer.wrap(segment);
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i + 12 <= segment.length; i += 12 + buffer.getInt(i + 8)) {
+            positions.add(i);
+        }
+        recordPositions = positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void copyFields(int position) {
+        System.arraycopy(segment, position, messageOffset, 0, 8);
+        System.arraycopy(segment, position + 8, messageLength, 0, 4);
+        System.arraycopy(segment, position + 12, messageCrc, 0, 4);
+        // magic value 1: crc, magic, attributes and timestamp precede the key
+        System.arraycopy(segment, position + 12 + 4 + 1 + 1 + 8, messageKeyLength, 0, 4);
+    }
+
+    @Benchmark
+    public long baseline() {
+        long sum = 0;
+        for (int position : recordPositions) {
+            copyFields(position);
+            sum += FieldCodecTest.baselineGetLong(messageOffset);
+            sum += FieldCodecTest.baselineGetInteger(messageLength);
+            sum += FieldCodecTest.baselineGetLong(messageCrc);
+            sum += FieldCodecTest.baselineGetInteger(messageKeyLength);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long fieldCodec() {
+        long sum = 0;
+        for (int position : recordPositions) {
+            copyFields(position);
+            sum += FieldCodec.readInt64(messageOffsetBuffer, 0);
+            sum += FieldCodec.readInt32(messageLengthBuffer, 0);
+            sum += FieldCodec.readUnsignedInt32(messageCrcBuffer, 0);
+            sum += FieldCodec.readInt32(messageKeyLengthBuffer, 0);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FieldCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,170 @@
+package kafka.tools.recordupdater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.math.IntMath;
+import com.google.common.math.LongMath;
+import com.google.common.primitives.UnsignedBytes;
+
+public class FieldCodecTest {
+
+    private static final int ITERATIONS = 10000;
+
+    private final Random random = new Random(0xcafe);
+
+    @Test
+    public void testFixedWidthReadsAgreeWithBaseline() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final byte[] b = new byte[1 + random.nextInt(8)];
+            random.nextBytes(b);
+            final ByteBuffer buffer = ByteBuffer.wrap(b);
+
+            final long expected = baselineGetLong(b);
+            assertEquals(expected, SegmentFileUpdater.getLong(b));
+            assertEquals(expected, FieldCodec.readUnsigned(b, 0, b.length));
+            assertEquals(baselineGetInteger(b), SegmentFileUpdater.getInteger(b));
+            if (b.length == 8) {
+                assertEquals(expected, FieldCodec.readInt64(buffer, 0));
+            }
+            if (b.length == 4) {
+                assertEquals(baselineGetInteger(b), FieldCodec.readInt32(buffer, 0));
+                assertEquals(expected, FieldCodec.readUnsignedInt32(buffer, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testFixedWidthWritesAgreeWithBaseline() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int width = 1 + random.nextInt(8);
+            final long value = (random.nextLong() & Long.MAX_VALUE) >>> random.nextInt(64);
+            final boolean fits = width == 8 || value >>> (8 * width) == 0;
+
+            if (fits) {
+                final byte[] expected = baselineGetBytes(value, width);
+                assertArrayEquals(expected, SegmentFileUpdater.getBytes(value, width));
+
+                final byte[] b = new byte[width];
+                FieldCodec.writeUnsigned(b, 0, width, value);
+                assertArrayEquals(expected, b);
+
+                final ByteBuffer buffer = ByteBuffer.allocate(8);
+                if (width == 8) {
+                    FieldCodec.writeInt64(buffer, 0, value);
+                    assertArrayEquals(expected, buffer.array());
+                }
+                if (width == 4) {
+                    FieldCodec.writeUnsignedInt32(buffer, 0, value);
+                    assertArrayEquals(expected, Arrays.copyOf(buffer.array(), 4));
+                }
+            } else {
+                assertThrows(() -> baselineGetBytes(value, width));
+                assertThrows(() -> SegmentFileUpdater.getBytes(value, width));
+            }
+        }
+        assertThrows(() -> baselineGetBytes(-1, 4));
+        assertThrows(() -> SegmentFileUpdater.getBytes(-1, 4));
+    }
+
+    private static void assertThrows(Runnable runnable) {
+        try {
+            runnable.run();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+     * The original helper implementations of SegmentFileUpdater, kept as a
+     * reference for the codec.
+     */
+
+    static byte[] baselineGetBytes(long sum, int arraySize) {
+        final byte[] b = new byte[arraySize];
+        for (int i = 0; i < b.length; i++) {
+            final int reverseIndex = b.length - 1 - i;
+            final long factor = LongMath.pow(256, reverseIndex);
+            final long base = sum / factor;
+            b[i] = UnsignedBytes.checkedCast(base);
+            sum = sum - (base * factor);
+        }
+        return b;
+    }
+
+    static long baselineGetLong(byte[] b) {
+        long sum = 0;
+        for (int i = 0; i < b.length; i++) {
+            final int reverseIndex = b.length - 1 - i;
+            final long factor = LongMath.pow(256, reverseIndex);
+            final int base = UnsignedBytes.toInt(b[i]);
+            sum += base * factor;
+        }
+        return sum;
+    }
+
+    static int baselineGetInteger(byte[] b) {
+        int sum = 0;
+        for (int i = 0; i < b.length; i++) {
+            final int reverseIndex = b.length - 1 - i;
+            final int factor = IntMath.pow(256, reverseIndex);
+            final int base = UnsignedBytes.toInt(b[i]);
+            sum += base * factor;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testVarintRoundTrip() {
+        final ByteBuffer buffer = ByteBuffer.allocate(10);
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int value = random.nextInt() >> random.nextInt(32);
+            buffer.clear();
+            FieldCodec.writeVarint(buffer, value);
+            assertEquals(FieldCodec.sizeOfVarint(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, FieldCodec.readVarint(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testVarlongRoundTrip() {
+        final ByteBuffer buffer = ByteBuffer.allocate(10);
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long value = random.nextLong() >> random.nextInt(64);
+            buffer.clear();
+            FieldCodec.writeVarlong(buffer, value);
+            assertEquals(FieldCodec.sizeOfVarlong(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, FieldCodec.readVarlong(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testVarintEncoding() {
+        assertEquals("[0]", Arrays.toString(encodeVarint(0)));
+        assertEquals("[1]", Arrays.toString(encodeVarint(-1)));
+        assertEquals("[2]", Arrays.toString(encodeVarint(1)));
+        assertEquals("[127]", Arrays.toString(encodeVarint(-64)));
+        assertEquals("[-128, 1]", Arrays.toString(encodeVarint(64)));
+        assertEquals("[-40, 4]", Arrays.toString(encodeVarint(300)));
+        assertEquals("[-2, -1, -1, -1, 15]", Arrays.toString(encodeVarint(Integer.MAX_VALUE)));
+        assertEquals("[-1, -1, -1, -1, 15]", Arrays.toString(encodeVarint(Integer.MIN_VALUE)));
+    }
+
+    private byte[] encodeVarint(int value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(5);
+        FieldCodec.writeVarint(buffer, value);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+}
@@ -0,0 +1,67 @@
+package kafka.tools.recordupdater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+import kafka.tools.recordupdater.api.Record;
+
+public class MainTest {
+
+    private static final File HELLO_DIR = new File("src/test/resources/example-log-dir-hello");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File copyHelloDir() throws Exception {
+        final File dir = temporaryFolder.newFolder("hello");
+        Files.copy(new File(HELLO_DIR, "meta.properties"), new File(dir, "meta.properties"));
+        final File partitionDir = new File(dir, "hello-0");
+        partitionDir.mkdir();
+        Files.copy(new File(HELLO_DIR, "hello-0/00000000000000000000.log"),
+                new File(partitionDir, "00000000000000000000.log"));
+        return dir;
+    }
+
+    private String readValues(File dir) {
+        try (final Stream<Record> stream = new DirectoryUpdater(dir).stream()) {
+            return stream.map(r -> r.getOffset() + ":" + new String(r.getValue())).collect(Collectors.toList())
+                    .toString();
+        }
+    }
+
+    @Test
+    public void testUpdateWithOffsetMin() throws Exception {
+        final File dir = copyHelloDir();
+        new Main().run(new String[] { "--data-dir", dir.getPath(), "--updater", "destroy-value", "--offset-min",
+                "4" });
+        assertEquals("[0:hello, 1:world, 2:this is a test, 3:author: Kasper Sorensen, "
+                + "4:*****************************, 5:***********]", readValues(dir));
+    }
+
+    @Test
+    public void testUpdateWithOffsetMax() throws Exception {
+        final File dir = copyHelloDir();
+        new Main().run(new String[] { "--data-dir", dir.getPath(), "--updater", "destroy-value", "--offset-max",
+                "1" });
+        assertEquals("[0:*****, 1:*****, 2:this is a test, 3:author: Kasper Sorensen, "
+                + "4:project: kafka-record-updater, 5:status: WIP]", readValues(dir));
+    }
+
+    @Test
+    public void testExportWithUnknownFormat() throws Exception {
+        final File outputFile = new File(temporaryFolder.getRoot(), "export.xml");
+        new Main().run(new String[] { "export", "--data-dir", HELLO_DIR.getPath(), "--output", outputFile.getPath(),
+                "--format", "xml" });
+        assertFalse(outputFile.exists());
+    }
+}
@@ -0,0 +1,141 @@
+package kafka.tools.recordupdater.updaters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+public class PseudonymizeRecordUpdaterTest {
+
+    private static final byte[] SECRET = "s3cr3t".getBytes(StandardCharsets.UTF_8);
+    private static final long CACHE_BYTES = 1024 * 1024;
+    private static final int MAX_CACHED_VALUE_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSameInputGivesSameToken() {
+        final PseudonymizeValueRecordUpdater updater = new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES,
+                MAX_CACHED_VALUE_SIZE);
+        final String token1 = pseudonymize(updater, "customer-12345");
+        final String token2 = pseudonymize(updater, "customer-12345");
+        assertEquals(token1, token2);
+        assertNotEquals("customer-12345", token1);
+        assertNotEquals(token1, pseudonymize(updater, "customer-12346"));
+
+        // a separate instance with the same secret produces the same token
+        assertEquals(token1, pseudonymize(
+                new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES, MAX_CACHED_VALUE_SIZE), "customer-12345"));
+
+        // a different secret produces a different token
+        final byte[] otherSecret = "other".getBytes(StandardCharsets.UTF_8);
+        assertNotEquals(token1, pseudonymize(
+                new PseudonymizeValueRecordUpdater(otherSecret, CACHE_BYTES, MAX_CACHED_VALUE_SIZE), "customer-12345"));
+    }
+
+    @Test
+    public void testTokenPreservesCharacterClasses() {
+        final PseudonymizeValueRecordUpdater updater = new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES,
+                MAX_CACHED_VALUE_SIZE);
+        final String original = "John.Doe+42@Example.com / 0123456789 abcdefghijklmnopqrstuvwxyz ABCDEFGHIJ";
+        final String token = pseudonymize(updater, original);
+        assertEquals(original.length(), token.length());
+        for (int i = 0; i < original.length(); i++) {
+            final char o = original.charAt(i);
+            final char t = token.charAt(i);
+            if (Character.isDigit(o)) {
+                assertTrue(Character.isDigit(t));
+            } else if (Character.isLowerCase(o)) {
+                assertTrue(Character.isLowerCase(t));
+            } else if (Character.isUpperCase(o)) {
+                assertTrue(Character.isUpperCase(t));
+            } else {
+                assertEquals(o, t);
+            }
+        }
+    }
+
+    @Test
+    public void testLongInput() {
+        final PseudonymizeValueRecordUpdater updater = new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES,
+                MAX_CACHED_VALUE_SIZE);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("0123456789");
+        }
+        final String token = pseudonymize(updater, sb.toString());
+        assertEquals(1000, token.length());
+        // hash blocks must not simply repeat after the length of one HMAC
+        assertNotEquals(token.substring(0, 32), token.substring(32, 64));
+    }
+
+    @Test
+    public void testNothingToPseudonymize() {
+        final PseudonymizeKeyAndValueRecordUpdater updater = new PseudonymizeKeyAndValueRecordUpdater(SECRET,
+                CACHE_BYTES, MAX_CACHED_VALUE_SIZE);
+        assertFalse(updater.update(0, new byte[0], "--- ...".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testCacheStats() {
+        final PseudonymizeKeyRecordUpdater updater = new PseudonymizeKeyRecordUpdater(SECRET, CACHE_BYTES,
+                MAX_CACHED_VALUE_SIZE);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(updater.update(i, "customer-1".getBytes(StandardCharsets.UTF_8), new byte[0]));
+        }
+        assertEquals(1, updater.getCacheStats().missCount());
+        assertEquals(9, updater.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void testLargeValuesAreNotCached() {
+        final PseudonymizeValueRecordUpdater updater = new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES, 10);
+        final String token = pseudonymize(updater, "customer-12345");
+        assertEquals(token, pseudonymize(updater, "customer-12345"));
+        assertEquals(0, updater.getCacheStats().requestCount());
+
+        // same token as when cached
+        assertEquals(token, pseudonymize(
+                new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES, MAX_CACHED_VALUE_SIZE), "customer-12345"));
+    }
+
+    @Test
+    public void testCacheIsBoundedByBytes() {
+        // room for only a few entries of 2 x 10 bytes
+        final PseudonymizeValueRecordUpdater updater = new PseudonymizeValueRecordUpdater(SECRET, 100,
+                MAX_CACHED_VALUE_SIZE);
+        for (int i = 0; i < 100; i++) {
+            pseudonymize(updater, "customer" + (10 + i));
+        }
+        assertTrue(updater.getCacheStats().evictionCount() >= 90);
+    }
+
+    @Test
+    public void testSecretFromFile() throws Exception {
+        final File secretFile = temporaryFolder.newFile("secret");
+        Files.write("s3cr3t\n", secretFile, StandardCharsets.UTF_8);
+        System.setProperty("pseudonymize.secret.file", secretFile.getPath());
+        try {
+            assertEquals(pseudonymize(new PseudonymizeValueRecordUpdater(), "customer-12345"), pseudonymize(
+                    new PseudonymizeValueRecordUpdater(SECRET, CACHE_BYTES, MAX_CACHED_VALUE_SIZE), "customer-12345"));
+        } finally {
+            System.clearProperty("pseudonymize.secret.file");
+        }
+    }
+
+    private String pseudonymize(AbstractPseudonymizeRecordUpdater updater, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        updater.update(0, new byte[0], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}